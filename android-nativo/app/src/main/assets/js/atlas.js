@@ -0,0 +1,51 @@
+/* ========================================
+   🧩 ATLAS - Sprites empaquetados en build
+   packSpriteAtlases (app/build.gradle) junta texturas y personajes en
+   img/atlas/<grupo>.webp y deja las coordenadas en img/atlas/atlas.json.
+   Si no hay atlas (desarrollo, navegador) se usan las imágenes sueltas.
+   ======================================== */
+
+const MANIFEST_URL = 'img/atlas/atlas.json';
+
+let manifest = null;
+
+const ready = fetch(MANIFEST_URL)
+  .then(res => (res.ok ? res.json() : null))
+  .then(data => { manifest = data; return data; })
+  .catch(() => null);
+
+// Promesa que se resuelve con el manifiesto (o null si no hay atlas)
+export const loadAtlas = () => ready;
+
+// Frame de una ruta de imagen ('img/personaje/aray_base.webp?v=2' → sin query)
+export const getFrame = (path) => {
+  if (!manifest || !path) return null;
+  return manifest.frames[path.split('?')[0]] || null;
+};
+
+// Estilos de fondo que muestran el frame estirado a la caja del elemento
+export const atlasStyle = (path) => {
+  const frame = getFrame(path);
+  if (!frame) return null;
+  const atlas = manifest.atlases[frame.atlas];
+  const pos = (p, total, size) => (total === size ? 0 : (p * 100) / (total - size));
+  return {
+    backgroundImage: `url('${atlas.image}')`,
+    backgroundSize: `${(atlas.w * 100) / frame.w}% ${(atlas.h * 100) / frame.h}%`,
+    backgroundPosition: `${pos(frame.x, atlas.w, frame.w)}% ${pos(frame.y, atlas.h, frame.h)}%`
+  };
+};
+
+// Pone un sprite como fondo de un elemento, desde el atlas si está empaquetado.
+// Espera al manifiesto para no descargar también la imagen suelta; gana la última llamada.
+export const setSpriteBackground = (el, path) => {
+  if (!el) return;
+  el.dataset.sprite = path;
+  ready.then(() => {
+    if (el.dataset.sprite !== path) return;
+    const style = atlasStyle(path);
+    el.style.backgroundImage = style ? style.backgroundImage : `url('${path}')`;
+    el.style.backgroundSize = style ? style.backgroundSize : '';
+    el.style.backgroundPosition = style ? style.backgroundPosition : '';
+  });
+};
@@ -0,0 +1,112 @@
+/* ========================================
+   🔌 BRIDGE - Peticiones nativas con Promesas
+   Cada llamada lleva su propio id y GameBridge resuelve exactamente esa
+   petición con window.__resolveBridge(id, ok, result)
+   ======================================== */
+
+const DEFAULT_TIMEOUT_MS = 10000;
+
+let nextRequestId = 0;
+const pendingRequests = new Map();
+
+window.__resolveBridge = (requestId, ok, result) => {
+  const pending = pendingRequests.get(requestId);
+  if (!pending) return; // Ya resuelta por timeout
+
+  pendingRequests.delete(requestId);
+  clearTimeout(pending.timer);
+  if (ok) {
+    pending.resolve(result);
+  } else {
+    pending.reject(new Error(result || 'Error en GameBridge'));
+  }
+};
+
+// ¿El nativo soporta el protocolo con ids?
+export const hasAsyncBridge = () => !!(window.GameBridge && window.GameBridge.callAsync);
+
+// Llama a un método asíncrono de GameBridge y devuelve una Promesa con su resultado
+export const callNative = (method, args = [], timeoutMs = DEFAULT_TIMEOUT_MS) => {
+  if (!hasAsyncBridge()) {
+    return Promise.reject(new Error('GameBridge.callAsync no disponible'));
+  }
+
+  const requestId = `req_${++nextRequestId}`;
+  return new Promise((resolve, reject) => {
+    const timer = setTimeout(() => {
+      pendingRequests.delete(requestId);
+      reject(new Error(`Timeout en ${method}`));
+    }, timeoutMs);
+
+    pendingRequests.set(requestId, { resolve, reject, timer });
+    window.GameBridge.callAsync(requestId, method, JSON.stringify(args));
+  });
+};
+
+// Nivel guardado en Firebase (0 = sin documento); null si no se pudo leer.
+// Se pueden lanzar todas a la vez: cada petición espera solo su propia respuesta
+export const fetchRemoteBestLevel = async (gameId, timeoutMs = 5000) => {
+  if (hasAsyncBridge()) {
+    try {
+      const level = await callNative('getBestLevel', [gameId], timeoutMs);
+      return parseInt(level) || 0;
+    } catch (error) {
+      return null;
+    }
+  }
+
+  // Nativo antiguo: callback global encadenado (una petición por juego)
+  if (!window.GameBridge || !window.GameBridge.getBestLevel) {
+    return null;
+  }
+  return new Promise((resolve) => {
+    let resolved = false;
+    const previousCallback = window.onBestLevelReceived;
+    const finish = (level) => {
+      if (resolved) return;
+      resolved = true;
+      if (window.onBestLevelReceived === handler) {
+        window.onBestLevelReceived = previousCallback;
+      }
+      resolve(level);
+    };
+    const handler = (receivedGameId, level) => {
+      if (receivedGameId === gameId) {
+        finish(parseInt(level) || 0);
+      } else if (previousCallback) {
+        previousCallback(receivedGameId, level);
+      }
+    };
+    window.onBestLevelReceived = handler;
+    window.GameBridge.getBestLevel(gameId);
+    setTimeout(() => finish(null), timeoutMs);
+  });
+};
+
+// Varias llamadas síncronas en un solo cruce del puente: [{ method, args }] → [resultado, ...]
+// getUser llega ya como objeto. Sin GameBridge.batch se hacen una a una.
+export const batchNative = (calls) => {
+  if (!window.GameBridge) {
+    return calls.map(() => null);
+  }
+
+  if (window.GameBridge.batch) {
+    try {
+      return JSON.parse(window.GameBridge.batch(JSON.stringify(calls)));
+    } catch (error) {
+      console.warn('⚠️ Error en GameBridge.batch:', error);
+      return calls.map(() => null);
+    }
+  }
+
+  return calls.map(({ method, args = [] }) => {
+    const fn = window.GameBridge[method];
+    if (typeof fn !== 'function') return null;
+    try {
+      const result = fn.apply(window.GameBridge, args);
+      return method === 'getUser' ? JSON.parse(result || '{}') : (result ?? null);
+    } catch (error) {
+      return null;
+    }
+  });
+};
@@ -9,7 +9,9 @@
 import { getCoins, getEnergy, setEnergy, setCoins, getBest, initGuestDataMigration } from './storage.js';
 import { updateHUD, toast, showModal, hideModal, playSound, playAudioFile, vibrate } from './ui.js';
 import { getAraySprite } from './sprites.js';
+import { setSpriteBackground } from './atlas.js';
 import { getRankingGlobal } from './auth.js';
+import { callNative, hasAsyncBridge, fetchRemoteBestLevel } from './bridge.js';
 
 // Dimensiones
 const MAP_WIDTH = 10;
@@ -459,7 +461,7 @@ const updateAvatarExpression = () => {
     expression = 'angry'; // Enfadado cuando tiene poca energía
   }
   
-  avatar.style.backgroundImage = `url('${getAraySprite(expression)}')`;
+  setSpriteBackground(avatar, getAraySprite(expression));
 };
 
 const setupEventListeners = () => {
@@ -648,7 +650,7 @@ const onEatClick = () => {
     
     // Cara feliz al comer
     const avatar = document.getElementById('avatar');
-    avatar.style.backgroundImage = `url('${getAraySprite('happy')}')`;
+    setSpriteBackground(avatar, getAraySprite('happy'));
     
     showAraySpeech(randomMsg('afterEat'), 2500); // Mensaje gracioso en bocadillo
     updateHUD();
@@ -837,28 +839,14 @@ const showBuildingModal = async (buildingType, buildingName) => {
   }
   
   // Si no hay nivel guardado, intentar obtenerlo desde GameBridge
-  if (record === 1 && window.GameBridge && window.GameBridge.getBestLevel) {
-    try {
-      // Hacer llamada síncrona para obtener el nivel del juego correcto
-      const levelData = await new Promise((resolve) => {
-        window.onBestLevelReceived = (gameId, level) => {
-          // Extraer el gameId de la clave (aray_best_skate -> skate)
-          const expectedGameId = info.recordKey.replace('aray_best_', '');
-          if (gameId === expectedGameId) {
-            resolve(level);
-          }
-        };
-        // Extraer el gameId de la clave (aray_best_skate -> skate)
-        const gameId = info.recordKey.replace('aray_best_', '');
-        window.GameBridge.getBestLevel(gameId);
-        // Timeout después de 1 segundo
-        setTimeout(() => resolve(1), 1000);
-      });
-      record = levelData;
-
-    } catch (error) {
-
-    }
+  if (record === 1 && info.recordKey && window.GameBridge && window.GameBridge.getBestLevelSync) {
+    // Lectura síncrona del almacén nativo: sin callbacks ni timeouts
+    const gameId = info.recordKey.replace('aray_best_', '');
+    record = parseInt(window.GameBridge.getBestLevelSync(gameId)) || 1;
+  } else if (record === 1 && info.recordKey && window.GameBridge && window.GameBridge.getBestLevel) {
+    // Extraer el gameId de la clave (aray_best_skate -> skate); timeout después de 1 segundo
+    const gameId = info.recordKey.replace('aray_best_', '');
+    record = await fetchRemoteBestLevel(gameId, 1000) || 1;
   }
 
   // Sonido de inicio de juego
@@ -1081,44 +1069,28 @@ const showRankingModal = async () => {
   });
 };
 
-// Función para obtener ranking de Yayos
-const getYayosRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getYayosRanking) {
-      return new Promise((resolve) => {
-        window.onYayosRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        // Timeout después de 5 segundos
-        setTimeout(() => {
+// Peticiones de ranking pendientes por juego (GameBridge.getRanking)
+const pendingRankingRequests = {};
 
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getYayosRanking();
-      });
-    } else {
-      // Fallback: obtener desde localStorage si no hay GameBridge
-      const localRanking = localStorage.getItem('yayos_ranking');
-      return localRanking ? JSON.parse(localRanking) : [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Yayos:', error);
-    return [];
-  }
+window.onGameRankingReceived = (gameId, ranking) => {
+  const resolvers = pendingRankingRequests[gameId] || [];
+  delete pendingRankingRequests[gameId];
+  resolvers.forEach(resolve => resolve(ranking || []));
 };
 
-// Función para obtener ranking de Skate Park
-const getSkateRanking = async () => {
+// Función genérica para obtener el ranking de cualquier juego
+const getGameRanking = async (gameId) => {
   try {
-    if (window.GameBridge && window.GameBridge.getSkateRanking) {
+    // Protocolo con id: cada petición se resuelve por separado
+    if (hasAsyncBridge()) {
+      return await callNative('getRanking', [gameId], 5000).catch(() => []) || [];
+    }
+    if (window.GameBridge && window.GameBridge.getRanking) {
       return new Promise((resolve) => {
-        window.onSkateRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
+        if (!pendingRankingRequests[gameId]) {
+          pendingRankingRequests[gameId] = [];
+        }
+        pendingRankingRequests[gameId].push(resolve);
         
         // Timeout después de 5 segundos
         setTimeout(() => {
@@ -1126,202 +1098,28 @@ const getSkateRanking = async () => {
           resolve([]);
         }, 5000);
         
-        window.GameBridge.getSkateRanking();
+        window.GameBridge.getRanking(gameId);
       });
     } else {
       // Fallback: obtener desde localStorage si no hay GameBridge
-      const localRanking = localStorage.getItem('skate_ranking');
+      const localRanking = localStorage.getItem(`${gameId}_ranking`);
       return localRanking ? JSON.parse(localRanking) : [];
     }
   } catch (error) {
-    console.error('Error obteniendo ranking de Skate:', error);
+    console.error(`Error obteniendo ranking de ${gameId}:`, error);
     return [];
   }
 };
 
-// Función para obtener ranking de Cole
-const getColeRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getColeRanking) {
-      return new Promise((resolve) => {
-        window.onColeRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        // Timeout después de 5 segundos
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getColeRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Cole:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Informática
-const getInformaticaRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getInformaticaRanking) {
-      return new Promise((resolve) => {
-        window.onInformaticaRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        // Timeout después de 5 segundos
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getInformaticaRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Informática:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Edificio
-const getEdificioRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getEdificioRanking) {
-      return new Promise((resolve) => {
-        window.onEdificioRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getEdificioRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Edificio:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Río
-const getRioRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getRioRanking) {
-      return new Promise((resolve) => {
-        window.onRioRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getRioRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Río:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Parque
-const getParqueRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getParqueRanking) {
-      return new Promise((resolve) => {
-        window.onParqueRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getParqueRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Parque:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Tienda
-const getTiendaRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getTiendaRanking) {
-      return new Promise((resolve) => {
-        window.onTiendaRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getTiendaRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Tienda:', error);
-    return [];
-  }
-};
-
-// Función para obtener ranking de Pabellón
-const getPabellonRanking = async () => {
-  try {
-    if (window.GameBridge && window.GameBridge.getPabellonRanking) {
-      return new Promise((resolve) => {
-        window.onPabellonRankingReceived = (ranking) => {
-
-          resolve(ranking || []);
-        };
-        
-        setTimeout(() => {
-
-          resolve([]);
-        }, 5000);
-        
-        window.GameBridge.getPabellonRanking();
-      });
-    } else {
-      return [];
-    }
-  } catch (error) {
-    console.error('Error obteniendo ranking de Pabellón:', error);
-    return [];
-  }
-};
+const getYayosRanking = () => getGameRanking('yayos');
+const getSkateRanking = () => getGameRanking('skate');
+const getColeRanking = () => getGameRanking('cole');
+const getInformaticaRanking = () => getGameRanking('informatica');
+const getEdificioRanking = () => getGameRanking('edificio');
+const getRioRanking = () => getGameRanking('rio');
+const getParqueRanking = () => getGameRanking('parque');
+const getTiendaRanking = () => getGameRanking('tienda');
+const getPabellonRanking = () => getGameRanking('pabellon');
 
 // ====== Modal Ranking Específico por Juego ======
 // Hacer la función disponible globalmente
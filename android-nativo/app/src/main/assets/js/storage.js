@@ -3,6 +3,8 @@
    Sistema híbrido: localStorage + Firebase/GameBridge
    ======================================== */
 
+import { callNative, hasAsyncBridge, fetchRemoteBestLevel, batchNative } from './bridge.js';
+
 // ========================================
 // 🏗️ ESTRUCTURA UNIFICADA DE DATOS
 // ========================================
@@ -50,6 +52,8 @@ const DEFAULT_DATA = {
   sync: {
     lastSync: null,
     offlineQueue: [],
+    pendingEarns: [],
+    guestCandiesQueued: false,
     needsSync: false,
     version: 1
   }
@@ -146,6 +150,58 @@ export const saveUnifiedData = (data) => {
 // 🔄 SINCRONIZACIÓN CON FIREBASE/GAMEBRIDGE
 // ========================================
 
+// Sincronizar todos los niveles con un solo viaje nativo (GameBridge.syncProgress)
+// Devuelve {gameId: bestLevel} con max(local, Firebase) o null si no está disponible
+const requestProgressSync = (progress) => {
+  if (!window.GameBridge || !window.GameBridge.syncProgress) {
+    return Promise.resolve(null);
+  }
+  
+  const localLevels = {};
+  Object.keys(progress).forEach(gameId => {
+    localLevels[gameId] = progress[gameId]?.bestLevel || 1;
+  });
+  
+  // Protocolo con id: no toca window.onProgressSynced
+  if (hasAsyncBridge()) {
+    return callNative('syncProgress', [localLevels]).catch(() => null);
+  }
+  
+  return new Promise((resolve) => {
+    let resolved = false;
+    const originalCallback = window.onProgressSynced;
+    
+    const finish = (merged) => {
+      if (resolved) return;
+      resolved = true;
+      window.onProgressSynced = originalCallback;
+      resolve(merged);
+    };
+    
+    window.onProgressSynced = (merged) => finish(merged || null);
+    window.GameBridge.syncProgress(JSON.stringify(localLevels));
+    
+    // Timeout de seguridad
+    setTimeout(() => finish(null), 10000);
+  });
+};
+
+// Aplicar niveles combinados al localStorage (nunca baja un nivel)
+const applyMergedLevels = (unifiedData, merged) => {
+  let changed = false;
+  Object.keys(merged).forEach(gameId => {
+    const entry = unifiedData.progress[gameId];
+    const level = parseInt(merged[gameId]) || 0;
+    if (entry && level > (entry.bestLevel || 1)) {
+      entry.bestLevel = level;
+      changed = true;
+    }
+  });
+  if (changed) {
+    saveUnifiedData(unifiedData);
+  }
+};
+
 // Sincronizar datos desde Firebase al localStorage
 export const syncFromFirebase = async () => {
   if (!window.GameBridge) {
@@ -180,27 +236,22 @@ export const syncFromFirebase = async () => {
     // Obtener progreso de juegos
     const gameKeys = ['skate', 'cole', 'yayos', 'parque', 'pabellon', 'informatica', 'tienda', 'rio', 'edificio'];
     
-    for (const gameKey of gameKeys) {
-      if (window.GameBridge.getBestLevel) {
-        try {
-          const level = await new Promise((resolve) => {
-            window.onBestLevelReceived = (level) => {
-              resolve(parseInt(level) || 1);
-            };
-            window.GameBridge.getBestLevel(gameKey);
-            setTimeout(() => resolve(1), 2000);
-          });
-          
-          if (unifiedData.progress[gameKey]) {
-            unifiedData.progress[gameKey].bestLevel = Math.max(unifiedData.progress[gameKey].bestLevel, level);
-            unifiedData.progress[gameKey].lastPlayed = new Date().toISOString();
-          }
-          
-
-        } catch (error) {
-          console.warn(`❌ Error sincronizando ${gameKey}:`, error);
+    // Vía rápida: un solo viaje nativo para todos los juegos
+    const merged = await requestProgressSync(unifiedData.progress);
+    if (merged) {
+      applyMergedLevels(unifiedData, merged);
+    }
+    
+    // Fallback: todas las lecturas por juego en paralelo
+    if (!merged) {
+      const fallbackLevels = await Promise.all(gameKeys.map(gameKey => fetchRemoteBestLevel(gameKey, 2000)));
+      gameKeys.forEach((gameKey, i) => {
+        const level = fallbackLevels[i] || 1;
+        if (unifiedData.progress[gameKey]) {
+          unifiedData.progress[gameKey].bestLevel = Math.max(unifiedData.progress[gameKey].bestLevel, level);
+          unifiedData.progress[gameKey].lastPlayed = new Date().toISOString();
         }
-      }
+      });
     }
     
     // Actualizar metadatos de sincronización
@@ -229,90 +280,71 @@ export const syncToFirebase = async () => {
   try {
     const unifiedData = getUnifiedData();
     
-    // ========== PASO 1: OBTENER Y COMPARAR CARAMELOS ==========
+    // ========== PASO 1: CARAMELOS ==========
+    // A Firebase solo van incrementos con opId (premios de invitado o que no llegaron al
+    // nativo); nunca un total, que justo tras el login se compararía con un usuario aún
+    // sin cargar y se sumaría dos veces.
+    flushPendingEarns();
+    
+    // El total local solo se sube al de Firebase para mostrarlo (no se escribe nada)
     const userJson = window.GameBridge.getUser() || '{}';
     const user = JSON.parse(userJson);
     const firebaseCandies = user.candiesTotal || 0;
     const localCandies = unifiedData.resources.candiesTotal || 0;
-    
-    // Calcular el máximo ANTES de modificar nada
-    const maxCandies = Math.max(localCandies, firebaseCandies);
-    
-    // Actualizar ambos al máximo (solo si alguno necesita actualización)
-    if (maxCandies !== localCandies || maxCandies !== firebaseCandies) {
-      if (maxCandies !== localCandies) {
-        // Actualizar localStorage al máximo
-        unifiedData.resources.candiesTotal = maxCandies;
-        saveUnifiedData(unifiedData);
-      }
-      
-      if (maxCandies !== firebaseCandies) {
-        // Actualizar Firebase al máximo
-        window.GameBridge.addCandies(maxCandies);
-      }
+    if (firebaseCandies > localCandies) {
+      unifiedData.resources.candiesTotal = firebaseCandies;
+      saveUnifiedData(unifiedData);
     }
     
     // ========== PASO 2: OBTENER Y COMPARAR NIVELES ==========
     // IMPORTANTE: Niveles y caramelos se sincronizan independientemente
     const gameKeys = ['skate', 'cole', 'yayos', 'parque', 'pabellon', 'informatica', 'tienda', 'rio', 'edificio'];
     
-    for (const gameKey of gameKeys) {
-      try {
-        // PASO 2.1: Obtener nivel LOCAL primero (sin modificar nada)
-        const localLevel = unifiedData.progress[gameKey]?.bestLevel || 1;
+    // Vía rápida: GameBridge.syncProgress lee, compara y sube todo en un solo viaje
+    const merged = await requestProgressSync(unifiedData.progress);
+    if (merged) {
+      applyMergedLevels(unifiedData, merged);
+    }
+    
+    // Fallback juego a juego (versiones nativas sin syncProgress)
+    // PASO 2.2 adelantado: leer los niveles de FIREBASE de todos los juegos a la vez (hasta 5 segundos)
+    if (!merged) {
+      const firebaseLevels = await Promise.all(gameKeys.map(gameKey => fetchRemoteBestLevel(gameKey, 5000)));
+    
+      for (const [index, gameKey] of gameKeys.entries()) {
+        try {
+          // PASO 2.1: Obtener nivel LOCAL primero (sin modificar nada)
+          const localLevel = unifiedData.progress[gameKey]?.bestLevel || 1;
         
-        // PASO 2.2: Obtener nivel de FIREBASE (esperar hasta 5 segundos)
-        const firebaseLevel = await new Promise((resolve) => {
-          let resolved = false;
-          const originalCallback = window.onBestLevelReceived;
-          
-          window.onBestLevelReceived = (receivedGameId, level) => {
-            if (receivedGameId === gameKey && !resolved) {
-              resolved = true;
-              const parsedLevel = parseInt(level) || 0; // 0 = no existe documento
-              window.onBestLevelReceived = originalCallback;
-              resolve(parsedLevel);
-            } else if (originalCallback && receivedGameId !== gameKey) {
-              originalCallback(receivedGameId, level);
-            }
-          };
-          
-          window.GameBridge.getBestLevel(gameKey);
-          
-          setTimeout(() => {
-            if (!resolved) {
-              resolved = true;
-              window.onBestLevelReceived = originalCallback;
-              resolve(0);
-            }
-          }, 5000);
-        });
+          // PASO 2.2: Nivel de FIREBASE (0 = no existe documento o no respondió)
+          const firebaseLevel = firebaseLevels[index] || 0;
         
-        // PASO 2.3: COMPARAR AMBOS VALORES (sin modificar nada aún)
-        // Normalizar: 0 en Firebase significa "no existe", equivalente a nivel 1
-        const firebaseLevelForComparison = firebaseLevel === 0 ? 1 : firebaseLevel;
+          // PASO 2.3: COMPARAR AMBOS VALORES (sin modificar nada aún)
+          // Normalizar: 0 en Firebase significa "no existe", equivalente a nivel 1
+          const firebaseLevelForComparison = firebaseLevel === 0 ? 1 : firebaseLevel;
         
-        // PASO 2.4: Calcular el MÁXIMO antes de modificar nada
-        const maxLevel = Math.max(localLevel, firebaseLevelForComparison);
+          // PASO 2.4: Calcular el MÁXIMO antes de modificar nada
+          const maxLevel = Math.max(localLevel, firebaseLevelForComparison);
         
-        // PASO 2.5: Actualizar ambos al máximo (solo si alguno necesita actualización)
-        if (maxLevel !== localLevel || maxLevel !== firebaseLevelForComparison) {
-          // Actualizar localStorage si no está al máximo
-          if (maxLevel !== localLevel) {
-            unifiedData.progress[gameKey].bestLevel = maxLevel;
-            saveUnifiedData(unifiedData);
-          }
+          // PASO 2.5: Actualizar ambos al máximo (solo si alguno necesita actualización)
+          if (maxLevel !== localLevel || maxLevel !== firebaseLevelForComparison) {
+            // Actualizar localStorage si no está al máximo
+            if (maxLevel !== localLevel) {
+              unifiedData.progress[gameKey].bestLevel = maxLevel;
+              saveUnifiedData(unifiedData);
+            }
           
-          // Actualizar Firebase si no está al máximo (usar valor real, no normalizado)
-          if (maxLevel > firebaseLevel) {
-            window.GameBridge.updateBestLevel(gameKey, maxLevel);
-            // Esperar un momento para que se complete
-            await new Promise(resolve => setTimeout(resolve, 500));
+            // Actualizar Firebase si no está al máximo (usar valor real, no normalizado)
+            if (maxLevel > firebaseLevel) {
+              window.GameBridge.updateBestLevel(gameKey, maxLevel);
+              // Esperar un momento para que se complete
+              await new Promise(resolve => setTimeout(resolve, 500));
+            }
           }
-        }
         
-      } catch (error) {
-        console.warn(`❌ Error sincronizando ${gameKey}:`, error);
+        } catch (error) {
+          console.warn(`❌ Error sincronizando ${gameKey}:`, error);
+        }
       }
     }
     
@@ -329,6 +361,18 @@ export const syncToFirebase = async () => {
   }
 };
 
+// Descargar los niveles de todos los juegos en paralelo y guardarlos
+const downloadAllLevels = async (unifiedData, gameIds) => {
+  const levels = await Promise.all(gameIds.map(gameId => fetchRemoteBestLevel(gameId, 3000)));
+  gameIds.forEach((gameId, i) => {
+    if (unifiedData.progress[gameId] && levels[i] > 0) {
+      unifiedData.progress[gameId].bestLevel = levels[i];
+    }
+  });
+  unifiedData.sync.lastSync = new Date().toISOString();
+  saveUnifiedData(unifiedData);
+};
+
 // Sincronización bidireccional: Firebase ↔ localStorage
 const syncBidirectional = async () => {
   
@@ -402,41 +446,7 @@ const syncBidirectional = async () => {
       
       // Descargar TODOS los niveles desde Firebase para cada juego
       const gameIds = ['skate', 'cole', 'yayos', 'parque', 'pabellon', 'informatica', 'tienda', 'rio', 'edificio'];
-      let loadedGames = 0;
-      
-      gameIds.forEach(gameId => {
-        if (window.GameBridge && window.GameBridge.getBestLevel) {
-          window.GameBridge.getBestLevel(gameId);
-          
-          // Configurar callback para recibir el nivel
-          const originalCallback = window.onBestLevelReceived;
-          window.onBestLevelReceived = (receivedGameId, level) => {
-
-            if (unifiedData.progress[receivedGameId] && level > 0) {
-              unifiedData.progress[receivedGameId].bestLevel = level;
-            }
-            loadedGames++;
-            
-            // Si ya cargamos todos los juegos, guardar
-            if (loadedGames === gameIds.length) {
-              unifiedData.sync.lastSync = new Date().toISOString();
-              saveUnifiedData(unifiedData);
-
-              window.onBestLevelReceived = originalCallback;
-            }
-          };
-          
-          // Timeout de seguridad
-          setTimeout(() => {
-            loadedGames++;
-            if (loadedGames === gameIds.length) {
-              unifiedData.sync.lastSync = new Date().toISOString();
-              saveUnifiedData(unifiedData);
-              console.log('✅ Datos cargados desde Firebase (con timeout)');
-            }
-          }, 3000);
-        }
-      });
+      downloadAllLevels(unifiedData, gameIds);
       
       return;
     }
@@ -466,40 +476,7 @@ const syncBidirectional = async () => {
         
         // Descargar TODOS los niveles desde Firebase
         const gameIds = ['skate', 'cole', 'yayos', 'parque', 'pabellon', 'informatica', 'tienda', 'rio', 'edificio'];
-        let loadedGames = 0;
-        
-        gameIds.forEach(gameId => {
-          if (window.GameBridge && window.GameBridge.getBestLevel) {
-            window.GameBridge.getBestLevel(gameId);
-            
-            const originalCallback = window.onBestLevelReceived;
-            window.onBestLevelReceived = (receivedGameId, level) => {
-
-              if (unifiedData.progress[receivedGameId] && level > 0) {
-                unifiedData.progress[receivedGameId].bestLevel = level;
-              }
-              loadedGames++;
-              
-              if (loadedGames === gameIds.length) {
-                unifiedData.sync.lastSync = new Date().toISOString();
-                saveUnifiedData(unifiedData);
-
-                window.onBestLevelReceived = originalCallback;
-              }
-            };
-            
-            setTimeout(() => {
-              if (loadedGames < gameIds.length) {
-                loadedGames++;
-                if (loadedGames === gameIds.length) {
-                  unifiedData.sync.lastSync = new Date().toISOString();
-                  saveUnifiedData(unifiedData);
-                  console.log('✅ Datos sincronizados (con timeout)');
-                }
-              }
-            }, 3000);
-          }
-        });
+        downloadAllLevels(unifiedData, gameIds);
       } else if (localTime > firebaseTime) {
 
         
@@ -523,40 +500,7 @@ const syncBidirectional = async () => {
         
         // Descargar niveles desde Firebase
         const gameIds = ['skate', 'cole', 'yayos', 'parque', 'pabellon', 'informatica', 'tienda', 'rio', 'edificio'];
-        let loadedGames = 0;
-        
-        gameIds.forEach(gameId => {
-          if (window.GameBridge && window.GameBridge.getBestLevel) {
-            window.GameBridge.getBestLevel(gameId);
-            
-            const originalCallback = window.onBestLevelReceived;
-            window.onBestLevelReceived = (receivedGameId, level) => {
-
-              if (unifiedData.progress[receivedGameId] && level > 0) {
-                unifiedData.progress[receivedGameId].bestLevel = level;
-              }
-              loadedGames++;
-              
-              if (loadedGames === gameIds.length) {
-                unifiedData.sync.lastSync = new Date().toISOString();
-                saveUnifiedData(unifiedData);
-
-                window.onBestLevelReceived = originalCallback;
-              }
-            };
-            
-            setTimeout(() => {
-              if (loadedGames < gameIds.length) {
-                loadedGames++;
-                if (loadedGames === gameIds.length) {
-                  unifiedData.sync.lastSync = new Date().toISOString();
-                  saveUnifiedData(unifiedData);
-                  console.log('✅ Sincronización completada (timeout)');
-                }
-              }
-            }, 3000);
-          }
-        });
+        downloadAllLevels(unifiedData, gameIds);
       }
       return;
     }
@@ -614,6 +558,56 @@ const syncCoinsAndCandies = (data) => {
   data.resources.coins = data.resources.candiesTotal;
 };
 
+// ========== PREMIOS DE CARAMELOS (INCREMENTOS) ==========
+// Cada premio lleva un opId: GameBridge.earnCandies lo suma una sola vez aunque se reintente,
+// y los incrementos de la partida salen juntos en un único FieldValue.increment.
+// Sin sesión (invitado) o si el puente falla, el premio espera en sync.pendingEarns con su
+// opId y se envía al iniciar sesión / al sincronizar.
+const newOpId = () => (window.crypto && window.crypto.randomUUID)
+  ? window.crypto.randomUUID()
+  : `${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 10)}`;
+
+const hasSession = () => !!(window.GameBridge && window.GameBridge.isUserLoggedIn && window.GameBridge.isUserLoggedIn());
+
+const queueEarn = (n, opId = newOpId()) => {
+  const data = getUnifiedData();
+  data.sync.pendingEarns = [...(data.sync.pendingEarns || []), { delta: n, opId }];
+  saveUnifiedData(data);
+};
+
+const earnCandies = (n) => {
+  if (!hasSession()) {
+    queueEarn(n);
+    return;
+  }
+  const opId = newOpId();
+  try {
+    window.GameBridge.earnCandies(n, opId);
+  } catch (error) {
+    // Se guarda con el mismo opId: si el nativo sí llegó a aplicarlo, el reintento se ignora
+    console.warn('❌ Error enviando caramelos, se reintentará:', error);
+    queueEarn(n, opId);
+  }
+};
+
+// Envía al nativo los premios pendientes con su opId original (solo con sesión)
+export const flushPendingEarns = () => {
+  if (!hasSession()) return;
+  const data = getUnifiedData();
+  const pending = data.sync.pendingEarns || [];
+  if (pending.length === 0) return;
+  const remaining = [];
+  for (const earn of pending) {
+    try {
+      window.GameBridge.earnCandies(earn.delta, earn.opId);
+    } catch (error) {
+      remaining.push(earn);
+    }
+  }
+  data.sync.pendingEarns = remaining;
+  saveUnifiedData(data);
+};
+
 // Claves legacy para compatibilidad
 // ========== FRESITAS (MONEDA) - COMPATIBLE CON CÓDIGO EXISTENTE ==========
 export const getCoins = () => {
@@ -623,15 +617,15 @@ export const getCoins = () => {
 
 export const setCoins = (n) => {
   const unifiedData = getUnifiedData();
+  const gained = Math.max(0, n) - unifiedData.resources.candiesTotal;
   unifiedData.resources.candiesTotal = Math.max(0, n);
   saveUnifiedData(unifiedData);
   
   // Ya no guardar en clave legacy (se eliminó por no usar código antiguo)
   
-  // Solo sincronizar con Firebase si el usuario está logueado
-  if (window.GameBridge && window.GameBridge.isUserLoggedIn && window.GameBridge.isUserLoggedIn()) {
-    // Enviar el valor absoluto a Firebase
-    window.GameBridge.addCandies(unifiedData.resources.candiesTotal);
+  // A Firebase solo va lo ganado, como incremento (el total remoto nunca baja)
+  if (window.GameBridge && gained > 0) {
+    earnCandies(gained);
   }
 };
 
@@ -642,10 +636,9 @@ export const addCoins = async (n = 1) => {
   
   // Ya no guardar en clave legacy (se eliminó por no usar código antiguo)
   
-  // Solo sincronizar con Firebase si el usuario está logueado
-  if (window.GameBridge && window.GameBridge.isUserLoggedIn && window.GameBridge.isUserLoggedIn()) {
-    // Enviar el valor absoluto a Firebase
-    window.GameBridge.addCandies(unifiedData.resources.candiesTotal);
+  // Enviar solo lo ganado (incremento), no el total; sin sesión queda pendiente
+  if (window.GameBridge) {
+    earnCandies(n);
   }
   
   // Disparar evento personalizado para animación
@@ -672,13 +665,12 @@ export const addCandies = async (n = 1) => {
   // Ya no guardar en clave legacy (se eliminó por no usar código antiguo)
   
   // Solo sincronizar con Firebase si el usuario está logueado
-  if (window.GameBridge && window.GameBridge.isUserLoggedIn && window.GameBridge.isUserLoggedIn()) {
+  if (hasSession()) {
     // Android - usar GameBridge solo si está logueado
-    // IMPORTANTE: Enviamos el VALOR ABSOLUTO (total), no el incremento
+    // Se envía el INCREMENTO con un id de operación: el nativo lo agrega y no lo repite
     try {
 
-      // Enviar el valor absoluto (total actual)
-      window.GameBridge.addCandies(unifiedData.resources.candiesTotal);
+      earnCandies(n);
 
       
       // Forzar actualización del HUD después de un breve delay
@@ -692,9 +684,9 @@ export const addCandies = async (n = 1) => {
     } catch (error) {
       console.warn('❌ Error enviando caramelos al GameBridge:', error);
     }
-  } else {
-    // Web - usar localStorage
-
+  } else if (window.GameBridge) {
+    // Invitado: el premio espera con su opId hasta que inicie sesión
+    queueEarn(n);
   }
   
   // Disparar evento personalizado para animación
@@ -724,7 +716,15 @@ export const getBest = async (gameId) => {
   const unifiedData = getUnifiedData();
   const level = unifiedData.progress[gameId]?.bestLevel || 1;
 
-  // Siempre usar localStorage como fuente de verdad
+  // localStorage es la fuente de verdad; el almacén nativo (síncrono) solo puede subir el nivel
+  if (window.GameBridge && window.GameBridge.getBestLevelSync) {
+    const nativeLevel = parseInt(window.GameBridge.getBestLevelSync(gameId)) || 0;
+    if (nativeLevel > level && unifiedData.progress[gameId]) {
+      unifiedData.progress[gameId].bestLevel = nativeLevel;
+      saveUnifiedData(unifiedData);
+      return nativeLevel;
+    }
+  }
   return level;
 };
 
@@ -772,32 +772,38 @@ export const getBestSkate = async () => await getBest('skate');
 export const setBestSkate = async (val) => await setBest('skate', val);
 
 // ========== SINCRONIZACIÓN OFFLINE - MEJORADA ==========
+// La cola offline la lleva el diario nativo (ProgressJournal): cada updateBestLevel/earnCandies
+// queda en disco antes de volver y se reaplica en una sola transacción al recuperar la red.
+// Aquí solo se traspasa la antigua cola de localStorage (si queda algo) y se pide reaplicar.
 export const syncOfflineProgress = async () => {
   if (!window.GameBridge) return;
   
   const unifiedData = getUnifiedData();
-  const offlineQueue = unifiedData.sync.offlineQueue;
+  const offlineQueue = unifiedData.sync.offlineQueue || [];
   
-  if (offlineQueue.length === 0) {
-
-    return;
+  if (offlineQueue.length > 0) {
+    const remaining = [];
+    for (const item of offlineQueue) {
+      try {
+        // Síncrono: al volver ya está apuntado en el diario nativo
+        window.GameBridge.updateBestLevel(item.gameId, item.level);
+      } catch (error) {
+        console.warn(`❌ Error pasando ${item.gameId} al diario:`, error);
+        remaining.push(item);
+      }
+    }
+    
+    // Solo se quita de la cola lo que ya está en el diario
+    unifiedData.sync.offlineQueue = remaining;
+    saveUnifiedData(unifiedData);
   }
   
-
+  // Premios que no llegaron al nativo: se reintentan con su opId original
+  flushPendingEarns();
   
-  for (const item of offlineQueue) {
-    try {
-      window.GameBridge.updateBestLevel(item.gameId, item.level);
-
-    } catch (error) {
-      console.warn(`❌ Error sincronizando ${item.gameId}:`, error);
-    }
+  if (window.GameBridge.replayJournal) {
+    window.GameBridge.replayJournal();
   }
-  
-  // Limpiar cola después de sincronizar
-  unifiedData.sync.offlineQueue = [];
-  saveUnifiedData(unifiedData);
-
 };
 
 // Detectar cuando vuelve la conexión
@@ -858,17 +864,37 @@ export const resetDataOnLogout = () => {
 // Inicializar migración automática de datos de invitado al crear nueva cuenta
 export const initGuestDataMigration = () => {
   // Verificar si el usuario está logueado y hay datos locales para migrar
-  if (window.GameBridge && 
-      window.GameBridge.isUserLoggedIn && 
-      window.GameBridge.isUserLoggedIn()) {
+  // (sesión y usuario en un solo cruce del puente)
+  const [isLoggedIn, bridgeUser] = batchNative([{ method: 'isUserLoggedIn' }, { method: 'getUser' }]);
+  
+  // null = el puente no respondió: no sabemos si hay sesión, así que no se migra nada
+  // (ni se marca la migración como hecha) hasta el próximo arranque
+  if (isLoggedIn === null) {
+    console.warn('⚠️ Estado de sesión desconocido, se omite la migración de invitado');
+    return;
+  }
+  
+  // Invitados de versiones anteriores: su saldo local no tiene opId. Se encola una sola vez
+  // como incremento para que se sume a la cuenta al iniciar sesión. Con localStorage vacío
+  // (primera vez) no hay nada que migrar y no se escribe: initMap lo usa para dar los
+  // caramelos iniciales, que ya se encolan con su propio opId.
+  const guestData = getUnifiedData();
+  if (!guestData.sync.guestCandiesQueued && localStorage.length > 0) {
+    if (!isLoggedIn && guestData.resources.candiesTotal > 0 && (guestData.sync.pendingEarns || []).length === 0) {
+      guestData.sync.pendingEarns = [{ delta: guestData.resources.candiesTotal, opId: newOpId() }];
+    }
+    guestData.sync.guestCandiesQueued = true;
+    saveUnifiedData(guestData);
+  }
+  
+  if (isLoggedIn) {
     
 
     
     const unifiedData = getUnifiedData();
     
     // Verificar si la cuenta de Firebase está vacía (nueva cuenta)
-    const userJson = window.GameBridge.getUser() || '{}';
-    const user = JSON.parse(userJson);
+    const user = bridgeUser || {};
     const firebaseCandies = user.candiesTotal || 0;
     const firebaseHasData = firebaseCandies > 0 || 
                            Object.values(unifiedData.progress).some(p => {
@@ -3,6 +3,7 @@
    ======================================== */
 
 import { getCoins, getEnergy, getCandies } from './storage.js';
+import { batchNative } from './bridge.js';
 
 // ========== PANTALLA COMPLETA ==========
 export const enterFullscreen = (element = document.documentElement) => {
@@ -363,21 +364,14 @@ export const updateHUD = () => {
   if (userNickEl) {
     let userNick = null;
     
+    // Usuario y sesión en un solo cruce del puente (updateHUD se llama cada segundo)
+    const [userData, isLoggedIn] = batchNative([{ method: 'getUser' }, { method: 'isUserLoggedIn' }]);
+    
         // Intentar obtener nick desde GameBridge
-        if (window.GameBridge && window.GameBridge.getUser) {
-          try {
-            const userDataStr = window.GameBridge.getUser();
-            if (userDataStr) {
-              const userData = JSON.parse(userDataStr);
-              if (userData && userData.nick) {
-                userNick = userData.nick;
-                // Guardar en localStorage para futuras referencias
-                localStorage.setItem('user_nick', userNick);
-              }
-            }
-          } catch (error) {
-            // Error silencioso
-          }
+        if (userData && userData.nick) {
+          userNick = userData.nick;
+          // Guardar en localStorage para futuras referencias
+          localStorage.setItem('user_nick', userNick);
         }
     
     // Si no se obtuvo desde GameBridge, intentar desde localStorage
@@ -391,7 +385,6 @@ export const updateHUD = () => {
       userNickEl.style.display = 'block';
     } else {
       // Verificar si el usuario está logueado
-      const isLoggedIn = window.GameBridge && window.GameBridge.isUserLoggedIn ? window.GameBridge.isUserLoggedIn() : false;
       if (isLoggedIn) {
         userNickEl.textContent = 'Usuario';
         userNickEl.style.display = 'block';
@@ -787,22 +780,12 @@ export const showSettingsModal = () => {
       return;
     }
     
-    // Verificar si el usuario está logueado
-    const isLoggedIn = window.GameBridge && window.GameBridge.isUserLoggedIn ? window.GameBridge.isUserLoggedIn() : false;
+    // Verificar si el usuario está logueado (sesión y datos en un solo cruce)
+    const [isLoggedIn, user] = batchNative([{ method: 'isUserLoggedIn' }, { method: 'getUser' }]);
     
     if (isLoggedIn) {
       // Usuario logueado - mostrar botón de cerrar sesión
-      const userData = window.GameBridge && window.GameBridge.getUser ? window.GameBridge.getUser() : null;
-      let nick = 'Usuario';
-      
-      if (userData) {
-        try {
-          const user = JSON.parse(userData);
-          nick = user.nick || 'Usuario';
-        } catch (e) {
-          // Error silencioso
-        }
-      }
+      const nick = (user && user.nick) || 'Usuario';
       
       authButton.innerHTML = `🚪 Cerrar Sesión - ${nick}`;
       authButton.style.background = 'linear-gradient(135deg, #ff6b6b, #ff4757)';
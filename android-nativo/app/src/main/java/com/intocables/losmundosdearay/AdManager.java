@@ -32,18 +32,23 @@ public class AdManager {
     
     private Context context;
     private WebView webView;
+    private JsDispatcher jsDispatcher;
     private AdView bannerAd;
     private InterstitialAd interstitialAd;
     private RewardedAd rewardedAd;
     private int gameCount = 0;
-    private boolean isAdMobInitialized = false;
+    private volatile boolean isAdMobInitialized = false;
     
     public AdManager(Context context) {
         this.context = context;
-        initializeAds();
     }
     
-    private void initializeAds() {
+    /**
+     * Inicializa el SDK de AdMob. Es lento (varios cientos de ms en gama baja), así que
+     * MainActivity lo lanza en segundo plano tras el primer frame de la WebView; mientras
+     * tanto el banner reintenta solo hasta que el SDK esté listo.
+     */
+    public void initialize() {
         MobileAds.initialize(context, new OnInitializationCompleteListener() {
             @Override
             public void onInitializationComplete(InitializationStatus initializationStatus) {
@@ -290,8 +295,12 @@ public class AdManager {
         this.webView = webView;
     }
     
+    public void setJsDispatcher(JsDispatcher jsDispatcher) {
+        this.jsDispatcher = jsDispatcher;
+    }
+    
     private void pauseGame() {
-        if (webView != null && context instanceof Activity) {
+        if (webView != null && jsDispatcher != null && context instanceof Activity) {
             Activity activity = (Activity) context;
             activity.runOnUiThread(() -> {
                 // Pausar WebView
@@ -306,13 +315,15 @@ public class AdManager {
                     "  window.animationId = null; " +
                     "}";
                 
-                webView.evaluateJavascript(pauseScript, null);
+                // La pausa no espera al siguiente frame: el anuncio se muestra ya
+                jsDispatcher.run(pauseScript);
+                jsDispatcher.flushNow();
             });
         }
     }
     
     private void resumeGame() {
-        if (webView != null && context instanceof Activity) {
+        if (webView != null && jsDispatcher != null && context instanceof Activity) {
             Activity activity = (Activity) context;
             activity.runOnUiThread(() -> {
                 // Reanudar WebView
@@ -323,7 +334,7 @@ public class AdManager {
                     "window._isGamePaused = false; " +
                     "if (typeof window.gameResume === 'function') { window.gameResume(); }";
                 
-                webView.evaluateJavascript(resumeScript, null);
+                jsDispatcher.run(resumeScript);
             });
         }
     }
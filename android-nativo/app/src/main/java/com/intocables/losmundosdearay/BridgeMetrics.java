@@ -0,0 +1,182 @@
+package com.intocables.losmundosdearay;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Métricas del puente JS ↔ Java: por cada método @JavascriptInterface y cada Task de
+ * Firestore que lanza GameBridge se cuentan llamadas, errores, concurrencia (en vuelo
+ * y máximo) y un histograma de latencias en cubos log2 de microsegundos.
+ * Todo son contadores atómicos: registrar una llamada no bloquea ningún hilo.
+ */
+public class BridgeMetrics {
+    private static final String TAG = "BridgeMetrics";
+    private static final String DUMP_FILE = "bridge_metrics.json";
+    // Cubo i = [2^i, 2^(i+1)) µs; el último recoge todo lo que pase de ~35 minutos
+    private static final int BUCKETS = 32;
+
+    private final Context context;
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public BridgeMetrics(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Marca el inicio de una llamada. Devuelve el instante a pasar a exit().
+     */
+    public long enter(String name) {
+        stats(name).enter();
+        return System.nanoTime();
+    }
+
+    public void exit(String name, long startNanos) {
+        stats(name).exit(System.nanoTime() - startNanos, false);
+    }
+
+    /**
+     * Mide una Task desde ahora hasta que termina (con éxito o error).
+     */
+    public <T> Task<T> track(String name, Task<T> task) {
+        Stats s = stats(name);
+        s.enter();
+        long start = System.nanoTime();
+        task.addOnCompleteListener(t -> s.exit(System.nanoTime() - start, !t.isSuccessful()));
+        return task;
+    }
+
+    private Stats stats(String name) {
+        Stats s = stats.get(name);
+        if (s == null) {
+            Stats created = new Stats();
+            s = stats.putIfAbsent(name, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Foto de todas las métricas: {nombre: {calls, errors, inFlight, maxInFlight,
+     * meanMs, p50Ms, p95Ms, p99Ms}}, ordenada por nombre.
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        Map<String, Stats> sorted = new TreeMap<>(stats);
+        try {
+            for (Map.Entry<String, Stats> entry : sorted.entrySet()) {
+                json.put(entry.getKey(), entry.getValue().toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creando JSON de métricas", e);
+        }
+        return json;
+    }
+
+    /**
+     * Escribe las métricas en files/bridge_metrics.json y devuelve la ruta (o null si falla).
+     */
+    public String dump() {
+        File file = new File(context.getFilesDir(), DUMP_FILE);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+            Log.d(TAG, "📊 Métricas guardadas en " + file.getAbsolutePath());
+            return file.getAbsolutePath();
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "❌ Error guardando métricas", e);
+            return null;
+        }
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    private static final class Stats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void enter() {
+            calls.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            int max;
+            while (current > (max = maxInFlight.get())) {
+                if (maxInFlight.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+        }
+
+        void exit(long elapsedNanos, boolean failed) {
+            inFlight.decrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            totalNanos.addAndGet(elapsedNanos);
+            buckets.incrementAndGet(bucket(elapsedNanos / 1000));
+        }
+
+        static int bucket(long micros) {
+            if (micros <= 1) {
+                return 0;
+            }
+            return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        }
+
+        /**
+         * Percentil aproximado: límite superior del cubo donde cae, en ms.
+         */
+        double percentileMs(long[] counts, long total, double p) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return (1L << (i + 1)) / 1000.0;
+                }
+            }
+            return (1L << BUCKETS) / 1000.0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            long[] counts = new long[BUCKETS];
+            long completed = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                completed += counts[i];
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("calls", calls.get());
+            json.put("errors", errors.get());
+            json.put("inFlight", inFlight.get());
+            json.put("maxInFlight", maxInFlight.get());
+            json.put("meanMs", completed > 0 ? totalNanos.get() / 1e6 / completed : 0);
+            json.put("p50Ms", percentileMs(counts, completed, 0.50));
+            json.put("p95Ms", percentileMs(counts, completed, 0.95));
+            json.put("p99Ms", percentileMs(counts, completed, 0.99));
+            return json;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.intocables.losmundosdearay;
+
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Única puerta de acceso a Firestore. Cada lectura, escritura, consulta, agregación y
+ * listener pasa por aquí con el nombre de la operación lógica que lo lanza
+ * (p.ej. "ranking.top", "user.fetch") y se contabiliza por operación y por colección:
+ * documentos leídos en servidor (facturados), servidos desde caché, escritos, y bytes
+ * aproximados (tamaño de documento según las reglas de almacenamiento de Firestore).
+ *
+ * Los contadores son de sesión (proceso); report() devuelve el informe y reset() lo reinicia.
+ */
+public class FirestoreAccess {
+    private static final String TAG = "FirestoreAccess";
+    private static final String APP_ID = "aray"; // App ID para Aray
+
+    public static final String USERS = "apps/" + APP_ID + "/users";
+    public static final String PROGRESS = "apps/" + APP_ID + "/progress";
+    public static final String NICKS = "apps/" + APP_ID + "/nicks";
+
+    // Una agregación count() factura 1 lectura por cada 1000 entradas de índice (mínimo 1)
+    private static final long COUNT_ENTRIES_PER_READ = 1000;
+    // Sobrecoste fijo por documento en las reglas de tamaño de Firestore
+    private static final int DOCUMENT_OVERHEAD_BYTES = 32;
+
+    private static FirestoreAccess instance;
+
+    private final FirebaseFirestore db;
+    private final ConcurrentHashMap<String, Counters> byPath = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counters> byOperation = new ConcurrentHashMap<>();
+    private volatile long sessionStart = System.currentTimeMillis();
+
+    public static synchronized FirestoreAccess getInstance() {
+        if (instance == null) {
+            instance = new FirestoreAccess(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private FirestoreAccess(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    /**
+     * Instancia de Firestore para lo que no genera lecturas ni escrituras (enableNetwork...).
+     */
+    public FirebaseFirestore firestore() {
+        return db;
+    }
+
+    // ==================== Referencias ====================
+
+    public CollectionReference users() {
+        return db.collection(USERS);
+    }
+
+    public CollectionReference progress() {
+        return db.collection(PROGRESS);
+    }
+
+    public CollectionReference nicks() {
+        return db.collection(NICKS);
+    }
+
+    public DocumentReference user(String uid) {
+        return users().document(uid);
+    }
+
+    public DocumentReference progressDoc(String docId) {
+        return progress().document(docId);
+    }
+
+    public DocumentReference nick(String lowerNick) {
+        return nicks().document(lowerNick);
+    }
+
+    // ==================== Lecturas ====================
+
+    public Task<DocumentSnapshot> get(String op, DocumentReference ref) {
+        call(op, collectionOf(ref));
+        Task<DocumentSnapshot> task = ref.get();
+        task.addOnSuccessListener(doc -> recordRead(op, collectionOf(ref), doc));
+        return task;
+    }
+
+    /**
+     * Lectura de documento desde una fuente concreta (p.ej. Source.SERVER para anclar
+     * consultas del servidor en el valor que él conoce, sin escrituras locales pendientes).
+     */
+    public Task<DocumentSnapshot> get(String op, DocumentReference ref, Source source) {
+        call(op, collectionOf(ref));
+        Task<DocumentSnapshot> task = ref.get(source);
+        task.addOnSuccessListener(doc -> recordRead(op, collectionOf(ref), doc));
+        return task;
+    }
+
+    /**
+     * Consulta sobre la colección path. Una consulta vacía factura igualmente 1 lectura.
+     */
+    public Task<QuerySnapshot> get(String op, String path, Query query) {
+        call(op, path);
+        Task<QuerySnapshot> task = query.get();
+        task.addOnSuccessListener(snapshot -> recordQuery(op, path, snapshot, snapshot.getDocuments()));
+        return task;
+    }
+
+    public Task<AggregateQuerySnapshot> count(String op, String path, Query query) {
+        call(op, path);
+        Task<AggregateQuerySnapshot> task = query.count().get(AggregateSource.SERVER);
+        task.addOnSuccessListener(result -> {
+            long reads = Math.max(1, (result.getCount() + COUNT_ENTRIES_PER_READ - 1) / COUNT_ENTRIES_PER_READ);
+            record(op, path, reads, 0, 0, 0, 0);
+        });
+        return task;
+    }
+
+    /**
+     * Listener de documento: cada instantánea llegada del servidor factura 1 lectura;
+     * las de caché o con escrituras locales pendientes no.
+     */
+    public ListenerRegistration listen(String op, DocumentReference ref, EventListener<DocumentSnapshot> listener) {
+        String path = collectionOf(ref);
+        return ref.addSnapshotListener((snapshot, e) -> {
+            if (snapshot != null && !snapshot.getMetadata().hasPendingWrites()) {
+                call(op, path);
+                recordRead(op, path, snapshot);
+            }
+            listener.onEvent(snapshot, e);
+        });
+    }
+
+    /**
+     * Listener de consulta: solo se facturan los documentos que cambian en cada instantánea
+     * (en la primera, todos).
+     */
+    public ListenerRegistration listen(String op, String path, Query query, EventListener<QuerySnapshot> listener) {
+        return query.addSnapshotListener((snapshot, e) -> {
+            if (snapshot != null && !snapshot.getMetadata().hasPendingWrites()) {
+                call(op, path);
+                List<DocumentSnapshot> changed = new ArrayList<>();
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    changed.add(change.getDocument());
+                }
+                if (!changed.isEmpty()) {
+                    recordQuery(op, path, snapshot, changed);
+                }
+            }
+            listener.onEvent(snapshot, e);
+        });
+    }
+
+    // ==================== Escrituras ====================
+
+    public Task<Void> set(String op, DocumentReference ref, Map<String, Object> data) {
+        call(op, collectionOf(ref));
+        Task<Void> task = ref.set(data);
+        task.addOnSuccessListener(v -> recordWrite(op, ref, data));
+        return task;
+    }
+
+    public Task<Void> set(String op, DocumentReference ref, Map<String, Object> data, SetOptions options) {
+        call(op, collectionOf(ref));
+        Task<Void> task = ref.set(data, options);
+        task.addOnSuccessListener(v -> recordWrite(op, ref, data));
+        return task;
+    }
+
+    public Task<Void> update(String op, DocumentReference ref, Map<String, Object> data) {
+        call(op, collectionOf(ref));
+        Task<Void> task = ref.update(data);
+        task.addOnSuccessListener(v -> recordWrite(op, ref, data));
+        return task;
+    }
+
+    public Batch batch(String op) {
+        return new Batch(op);
+    }
+
+    // ==================== Informe ====================
+
+    /**
+     * Informe de la sesión: {startedAt, durationMs, totals, byPath, byOperation}, donde cada
+     * entrada es {calls, reads, cacheHits, writes, bytesRead, bytesWritten}.
+     */
+    public JSONObject report() {
+        JSONObject json = new JSONObject();
+        try {
+            Counters totals = new Counters();
+            JSONObject paths = new JSONObject();
+            for (Map.Entry<String, Counters> entry : new TreeMap<>(byPath).entrySet()) {
+                paths.put(entry.getKey(), entry.getValue().toJson());
+                totals.add(entry.getValue());
+            }
+            JSONObject operations = new JSONObject();
+            for (Map.Entry<String, Counters> entry : new TreeMap<>(byOperation).entrySet()) {
+                operations.put(entry.getKey(), entry.getValue().toJson());
+            }
+            json.put("startedAt", sessionStart);
+            json.put("durationMs", System.currentTimeMillis() - sessionStart);
+            json.put("totals", totals.toJson());
+            json.put("byPath", paths);
+            json.put("byOperation", operations);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creando informe de Firestore", e);
+        }
+        return json;
+    }
+
+    public void logReport() {
+        try {
+            Log.d(TAG, "💰 Coste Firestore de la sesión:\n" + report().toString(2));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error formateando informe de Firestore", e);
+        }
+    }
+
+    public void reset() {
+        byPath.clear();
+        byOperation.clear();
+        sessionStart = System.currentTimeMillis();
+    }
+
+    // ==================== Contabilidad ====================
+
+    private void recordRead(String op, String path, DocumentSnapshot doc) {
+        long bytes = doc.exists() ? documentBytes(doc.getReference(), doc.getData()) : 0;
+        if (doc.getMetadata().isFromCache()) {
+            record(op, path, 0, 1, 0, bytes, 0);
+        } else {
+            record(op, path, 1, 0, 0, bytes, 0);
+        }
+    }
+
+    private void recordQuery(String op, String path, QuerySnapshot snapshot, List<DocumentSnapshot> docs) {
+        boolean fromCache = snapshot.getMetadata().isFromCache();
+        if (docs.isEmpty()) {
+            if (!fromCache) {
+                record(op, path, 1, 0, 0, 0, 0);
+            }
+            return;
+        }
+        for (DocumentSnapshot doc : docs) {
+            long bytes = documentBytes(doc.getReference(), doc.getData());
+            if (fromCache) {
+                record(op, collectionOf(doc.getReference()), 0, 1, 0, bytes, 0);
+            } else {
+                record(op, collectionOf(doc.getReference()), 1, 0, 0, bytes, 0);
+            }
+        }
+    }
+
+    private void recordWrite(String op, DocumentReference ref, Map<String, Object> data) {
+        record(op, collectionOf(ref), 0, 0, 1, 0, documentBytes(ref, data));
+    }
+
+    private void call(String op, String path) {
+        callOperation(op);
+        counters(byPath, path).calls.incrementAndGet();
+    }
+
+    private void callOperation(String op) {
+        counters(byOperation, op).calls.incrementAndGet();
+    }
+
+    private void record(String op, String path, long reads, long cacheHits, long writes,
+                        long bytesRead, long bytesWritten) {
+        counters(byPath, path).add(reads, cacheHits, writes, bytesRead, bytesWritten);
+        counters(byOperation, op).add(reads, cacheHits, writes, bytesRead, bytesWritten);
+    }
+
+    private static Counters counters(ConcurrentHashMap<String, Counters> map, String key) {
+        Counters counters = map.get(key);
+        if (counters == null) {
+            Counters created = new Counters();
+            counters = map.putIfAbsent(key, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    private static String collectionOf(DocumentReference ref) {
+        return ref.getParent().getPath();
+    }
+
+    /**
+     * Tamaño aproximado de un documento: nombre + campos + 32 bytes.
+     */
+    static long documentBytes(DocumentReference ref, Map<String, Object> data) {
+        long size = DOCUMENT_OVERHEAD_BYTES + utf8(ref.getPath()) + 1;
+        if (data != null) {
+            size += mapBytes(data);
+        }
+        return size;
+    }
+
+    private static long mapBytes(Map<?, ?> map) {
+        long size = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            size += utf8(String.valueOf(entry.getKey())) + 1 + valueBytes(entry.getValue());
+        }
+        return size;
+    }
+
+    private static long valueBytes(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof String) {
+            return utf8((String) value) + 1;
+        }
+        if (value instanceof Number || value instanceof Timestamp || value instanceof java.util.Date) {
+            return 8;
+        }
+        if (value instanceof GeoPoint) {
+            return 16;
+        }
+        if (value instanceof Blob) {
+            return ((Blob) value).toBytes().length;
+        }
+        if (value instanceof DocumentReference) {
+            return utf8(((DocumentReference) value).getPath()) + 1;
+        }
+        if (value instanceof Map) {
+            return mapBytes((Map<?, ?>) value);
+        }
+        if (value instanceof Collection) {
+            long size = 0;
+            for (Object item : (Collection<?>) value) {
+                size += valueBytes(item);
+            }
+            return size;
+        }
+        // FieldValue (serverTimestamp, increment...) y demás centinelas
+        return 8;
+    }
+
+    private static int utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // ==================== Tipos auxiliares ====================
+
+    /**
+     * WriteBatch contabilizado: cuenta una escritura por operación al confirmarse.
+     */
+    public class Batch {
+        private final String op;
+        private final WriteBatch batch = db.batch();
+        private final List<PendingWrite> writes = new ArrayList<>();
+
+        private Batch(String op) {
+            this.op = op;
+        }
+
+        public Batch set(DocumentReference ref, Map<String, Object> data) {
+            batch.set(ref, data);
+            writes.add(new PendingWrite(collectionOf(ref), documentBytes(ref, data)));
+            return this;
+        }
+
+        public Batch set(DocumentReference ref, Map<String, Object> data, SetOptions options) {
+            batch.set(ref, data, options);
+            writes.add(new PendingWrite(collectionOf(ref), documentBytes(ref, data)));
+            return this;
+        }
+
+        public Batch update(DocumentReference ref, Map<String, Object> data) {
+            batch.update(ref, data);
+            writes.add(new PendingWrite(collectionOf(ref), documentBytes(ref, data)));
+            return this;
+        }
+
+        public Batch update(DocumentReference ref, String field, Object value) {
+            batch.update(ref, field, value);
+            writes.add(new PendingWrite(collectionOf(ref), documentBytes(ref, Collections.singletonMap(field, value))));
+            return this;
+        }
+
+        public int size() {
+            return writes.size();
+        }
+
+        public Task<Void> commit() {
+            List<PendingWrite> committed = new ArrayList<>(writes);
+            callOperation(op);
+            Set<String> paths = new HashSet<>();
+            for (PendingWrite write : committed) {
+                paths.add(write.path);
+            }
+            for (String path : paths) {
+                counters(byPath, path).calls.incrementAndGet();
+            }
+            Task<Void> task = batch.commit();
+            task.addOnSuccessListener(v -> {
+                for (PendingWrite write : committed) {
+                    record(op, write.path, 0, 0, 1, 0, write.bytes);
+                }
+            });
+            return task;
+        }
+    }
+
+    private static final class PendingWrite {
+        final String path;
+        final long bytes;
+
+        PendingWrite(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Counters {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicLong bytesWritten = new AtomicLong();
+
+        void add(long reads, long cacheHits, long writes, long bytesRead, long bytesWritten) {
+            this.reads.addAndGet(reads);
+            this.cacheHits.addAndGet(cacheHits);
+            this.writes.addAndGet(writes);
+            this.bytesRead.addAndGet(bytesRead);
+            this.bytesWritten.addAndGet(bytesWritten);
+        }
+
+        void add(Counters other) {
+            calls.addAndGet(other.calls.get());
+            add(other.reads.get(), other.cacheHits.get(), other.writes.get(),
+                other.bytesRead.get(), other.bytesWritten.get());
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("calls", calls.get());
+            json.put("reads", reads.get());
+            json.put("cacheHits", cacheHits.get());
+            json.put("writes", writes.get());
+            json.put("bytesRead", bytesRead.get());
+            json.put("bytesWritten", bytesWritten.get());
+            return json;
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.intocables.losmundosdearay;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.SystemClock;
 import android.util.Log;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
@@ -14,6 +20,7 @@ import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.AuthCredential;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
@@ -22,53 +29,156 @@ import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FieldValue;
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.SetOptions;
 import com.google.firebase.firestore.Transaction;
-import com.google.firebase.firestore.WriteBatch;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GameBridge {
     private static final String APP_ID = "aray"; // App ID para Aray
+    // Métodos que se pueden agrupar en batch(): lecturas en memoria y escrituras que
+    // no esperan respuesta (las asíncronas con resultado van por callAsync)
+    private static final Set<String> BATCHABLE_METHODS = new HashSet<>(Arrays.asList(
+        "isUserLoggedIn", "getUser", "getSoundEnabled", "getMusicEnabled", "getBestLevelSync",
+        "updateBestLevel", "updateAudioPreferences", "flushPendingWrites", "onGamePlayed",
+        "replayJournal", "earnCandies"
+    ));
     private static final String WEB_CLIENT_ID = "989954746255-e6gfghahanjo4q8vggkuoafvk2iov6n0.apps.googleusercontent.com";
     
     private MainActivity activity;
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
-    private GoogleSignInClient googleSignInClient;
+    private final FirestoreAccess firestore;
+    private volatile GoogleSignInClient googleSignInClient;
     private FirebaseUser currentUser;
     private AdManager adManager;
-    private long cachedCandies = 0;
-    private String cachedNick = null;
-    private boolean cachedSoundEnabled = false;
-    private boolean cachedMusicEnabled = false;
+    private final JsDispatcher js;
+    private final BridgeMetrics metrics;
+    // Estado del usuario: se sustituye entero (inmutable) desde el listener o los setters locales
+    private volatile UserState userState = UserState.EMPTY;
+    private ListenerRegistration userListener;
+    private String userListenerUid;
+    private Task<DocumentSnapshot> userFetch;
+    private String userFetchUid;
+    private final WriteBehindBuffer writeBuffer = new WriteBehindBuffer();
+    private final ProgressStore progressStore;
+    private final UserSnapshotStore snapshotStore;
+    private final ProgressJournal journal;
+    private final ProgressMerge merge;
+    // candiesTotal del documento si aún no tiene contadores por dispositivo (se guarda como "legacy")
+    private volatile Long legacyCandies;
+    private final AtomicBoolean journalReplaying = new AtomicBoolean(false);
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private final LeaderboardService leaderboard;
+    // Último refresco de la copia del jugador en progreso por cambios de caramelos
+    private volatile long playerCopyRefreshedAt = 0;
+    private ListenerRegistration progressListener;
+    private String progressListenerUid;
 
     public GameBridge(MainActivity activity, AdManager adManager) {
         this.activity = activity;
         this.adManager = adManager;
+        this.js = activity.getJsDispatcher();
+        // Constructores sin disco: SQLite (ProgressStore), las preferencias de ProgressMerge y el
+        // diario se abren en su primer uso o en segundo plano desde StartupOrchestrator; la
+        // única lectura síncrona es la foto de usuario de más abajo
+        this.metrics = new BridgeMetrics(activity);
         this.mAuth = FirebaseAuth.getInstance();
-        this.db = FirebaseFirestore.getInstance();
+        this.firestore = FirestoreAccess.getInstance();
+        this.progressStore = new ProgressStore(activity);
+        this.snapshotStore = new UserSnapshotStore(activity);
+        this.journal = new ProgressJournal(activity);
+        this.merge = new ProgressMerge(activity);
+        this.leaderboard = new LeaderboardService(firestore);
         
-        Log.d("GameBridge", "🚀 GameBridge inicializado correctamente");
+        // Última foto conocida del usuario (lectura síncrona): getUser() y el HUD tienen
+        // valores reales desde el primer frame; el listener de usuario la corrige después
+        FirebaseUser startupUser = mAuth.getCurrentUser();
+        if (startupUser != null) {
+            UserSnapshotStore.Snapshot snapshot = snapshotStore.load();
+            if (snapshot != null && startupUser.getUid().equals(snapshot.getState().getUid())) {
+                userState = snapshot.getState();
+                progressStore.seed(startupUser.getUid(), snapshot.getLevels());
+            }
+            // Precargar niveles locales para que getBestLevelSync responda desde memoria
+            progressStore.preload(startupUser.getUid());
+        }
         
-        // Configurar Google Sign-In
-        GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-                .requestIdToken(WEB_CLIENT_ID)
-                .requestEmail()
-                .build();
-        this.googleSignInClient = GoogleSignIn.getClient(activity, gso);
+        // Los contadores de caramelos del diario se confirman cuando el buffer los vuelca
+        writeBuffer.setFlushCallback((path, fields) -> {
+            Object counters = fields.get(ProgressMerge.CANDIES_BY_DEVICE);
+            Object counter = counters instanceof Map ? ((Map<?, ?>) counters).get(merge.getDeviceId()) : null;
+            if (counter instanceof Long) {
+                journal.acknowledgeLatest(path.substring(path.lastIndexOf('/') + 1),
+                    ProgressJournal.CANDIES, merge.getDeviceId(), (Long) counter);
+            }
+            if (fields.containsKey("candiesTotal")) {
+                refreshPlayerCopy(path.substring(path.lastIndexOf('/') + 1), false);
+            }
+        });
+        watchNetwork();
         
-        // Configurar Firestore offline
-        db.enableNetwork().addOnCompleteListener(task -> {
+        Log.d("GameBridge", "🚀 GameBridge inicializado correctamente");
+        // El cliente de Google Sign-In y la conexión a Firestore los lanza
+        // StartupOrchestrator en segundo plano (prepareSignInClient / connect)
+    }
+
+    /**
+     * Construye el cliente de Google Sign-In. Se puede llamar desde cualquier hilo.
+     */
+    public GoogleSignInClient prepareSignInClient() {
+        GoogleSignInClient client = googleSignInClient;
+        if (client == null) {
+            synchronized (this) {
+                client = googleSignInClient;
+                if (client == null) {
+                    GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+                            .requestIdToken(WEB_CLIENT_ID)
+                            .requestEmail()
+                            .build();
+                    client = GoogleSignIn.getClient(activity, gso);
+                    googleSignInClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Lee el diario offline de disco. Lo lanza StartupOrchestrator en segundo plano para
+     * que el primer uso del diario no toque disco en el hilo principal.
+     */
+    public void preloadJournal() {
+        journal.preload();
+    }
+
+    /**
+     * Lee las preferencias de fusión (deviceId, contadores) en segundo plano, igual que el diario.
+     */
+    public void preloadMerge() {
+        merge.preload();
+    }
+
+    /**
+     * Activa la red de Firestore y, cuando está lista, carga los datos del usuario.
+     * Se puede llamar desde un hilo en segundo plano: el callback llega al hilo principal.
+     */
+    public void connect() {
+        firestore.firestore().enableNetwork().addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
                 // Firestore offline habilitado
                 // Cargar datos iniciales del usuario si está logueado
@@ -77,48 +187,97 @@ public class GameBridge {
         });
     }
 
+    /**
+     * Reaplica el diario offline cada vez que vuelve la red.
+     */
+    private void watchNetwork() {
+        ConnectivityManager cm = (ConnectivityManager) activity.getApplicationContext()
+            .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                Log.d("GameBridge", "📶 Red disponible, reaplicando diario offline");
+                replayPendingJournal();
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build();
+        cm.registerNetworkCallback(request, networkCallback);
+    }
+
+    /**
+     * Deja de escuchar la red (MainActivity.onDestroy).
+     */
+    public void release() {
+        ConnectivityManager cm = (ConnectivityManager) activity.getApplicationContext()
+            .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null && networkCallback != null) {
+            cm.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    /**
+     * Recibe el localStorage del antiguo origen file:// (solo en la migración a WebAssets).
+     */
+    @JavascriptInterface
+    public void exportLegacyStorage(String json) {
+        long metricsStart = metrics.enter("exportLegacyStorage");
+        try {
+            Log.d("GameBridge", "📦 localStorage de file:// recibido (" + (json != null ? json.length() : 0) + " bytes)");
+            activity.onLegacyStorageExported(json);
+        } finally {
+            metrics.exit("exportLegacyStorage", metricsStart);
+        }
+    }
+
+    /**
+     * Línea de tiempo del arranque en frío (fases, hilos y ms desde onCreate) como JSON.
+     */
+    @JavascriptInterface
+    public String getStartupTimeline() {
+        long metricsStart = metrics.enter("getStartupTimeline");
+        try {
+            return activity.getStartup().toJson().toString();
+        } finally {
+            metrics.exit("getStartupTimeline", metricsStart);
+        }
+    }
+
     @JavascriptInterface
     public String getUser() {
+        long metricsStart = metrics.enter("getUser");
+        try {
+            return getUserImpl();
+        } finally {
+            metrics.exit("getUser", metricsStart);
+        }
+    }
+
+    private String getUserImpl() {
         if (currentUser == null) {
             currentUser = mAuth.getCurrentUser();
         }
-        
+    
         if (currentUser != null) {
             try {
                 JSONObject user = new JSONObject();
                 user.put("uid", currentUser.getUid());
                 user.put("email", currentUser.getEmail());
                 user.put("photoURL", currentUser.getPhotoUrl() != null ? currentUser.getPhotoUrl().toString() : null);
-                
-                // Intentar obtener nick del documento de Firestore
-                String uid = currentUser.getUid();
-                DocumentReference userRef = db
-                    .collection("apps").document(APP_ID)
-                    .collection("users").document(uid);
-                
-                userRef.get().addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && task.getResult().exists()) {
-                        DocumentSnapshot doc = task.getResult();
-                        String nick = doc.getString("nick");
-                        Long candiesTotal = doc.getLong("candiesTotal");
-                        Object lastSeen = doc.get("lastSeen");
-                        Object createdAt = doc.get("createdAt");
-                        
-                        // Actualizar cache con datos reales de Firestore
-                        cachedNick = nick;
-                        if (candiesTotal != null) cachedCandies = candiesTotal;
-                        
-                        Log.d("GameBridge", "📥 Datos completos cargados desde Firestore: nick=" + nick + ", candies=" + candiesTotal);
-                    }
-                });
-                
-                // Usar datos de cache (pueden ser temporales hasta que Firestore responda)
-                user.put("nick", cachedNick != null ? cachedNick : "Usuario");
-                user.put("candiesTotal", cachedCandies);
-                user.put("soundEnabled", cachedSoundEnabled);
-                user.put("musicEnabled", cachedMusicEnabled);
-                
-                Log.d("GameBridge", "getUser() devolviendo - uid: " + user.optString("uid") + ", nick: " + user.optString("nick") + ", candies: " + cachedCandies);
+            
+                // Solo memoria: el listener de usuario mantiene userState al día
+                UserState state = userState;
+                user.put("nick", state.getNick() != null ? state.getNick() : "Usuario");
+                user.put("candiesTotal", state.getCandiesTotal());
+                user.put("soundEnabled", state.isSoundEnabled());
+                user.put("musicEnabled", state.isMusicEnabled());
+            
+                Log.d("GameBridge", "getUser() devolviendo - uid: " + user.optString("uid") + ", nick: " + user.optString("nick") + ", candies: " + state.getCandiesTotal());
                 return user.toString();
             } catch (JSONException e) {
                 Log.e("GameBridge", "Error creando JSON en getUser(): " + e.getMessage());
@@ -129,170 +288,401 @@ public class GameBridge {
         return "{}";
     }
 
+    /**
+     * Premio de caramelos como incremento: JS no necesita leer el total antes (ya no hay
+     * escritura de totales absolutos, que justo tras el login se comparaban con un usuario
+     * aún sin cargar y volvían a sumar todo el saldo local). opId identifica
+     * el premio; si JS lo reintenta (p. ej. tras un error del puente) con el mismo opId no se
+     * vuelve a sumar. Los incrementos de una partida se agregan en el buffer write-behind y
+     * salen como un único FieldValue.increment en el siguiente volcado.
+     * Devuelve false si no se aplicó (opId repetido, delta no positivo o sin sesión).
+     */
     @JavascriptInterface
-    public void addCandies(int total) {
-        Log.d("GameBridge", "addCandies() llamado con valor absoluto: " + total);
-        
+    public boolean earnCandies(int delta, String opId) {
+        long metricsStart = metrics.enter("earnCandies");
+        try {
+            return earnCandiesImpl(delta, opId);
+        } finally {
+            metrics.exit("earnCandies", metricsStart);
+        }
+    }
+
+    private boolean earnCandiesImpl(int delta, String opId) {
+        if (delta <= 0 || opId == null || opId.isEmpty()) {
+            Log.w("GameBridge", "earnCandies() - parámetros no válidos: " + delta + ", " + opId);
+            return false;
+        }
+    
         if (currentUser == null) {
             currentUser = mAuth.getCurrentUser();
         }
-        
-        if (currentUser != null) {
-            String uid = currentUser.getUid();
-            Log.d("GameBridge", "Usuario logueado: " + uid);
-            DocumentReference userRef = db
-                .collection("apps").document(APP_ID)
-                .collection("users").document(uid);
-            
-            // Establecer el valor absoluto en lugar de incrementar
-            Map<String, Object> data = new HashMap<>();
-            data.put("candiesTotal", (long) total);
-            data.put("lastSeen", FieldValue.serverTimestamp());
-            
-            userRef.set(data, SetOptions.merge())
-                .addOnSuccessListener(v -> {
-                    Log.d("GameBridge", "✅ candies total = " + total);
-                    cachedCandies = total;
-                    activity.runOnUiThread(() -> {
-                        WebView web = activity.findViewById(R.id.webview);
-                        web.evaluateJavascript("if (window.updateHUD) { window.updateHUD(); }", null);
-                    });
-                })
-                .addOnFailureListener(e -> Log.e("GameBridge", "❌ error actualizando candies", e));
-        } else {
+        if (currentUser == null) {
             Log.w("GameBridge", "Usuario no logueado, no se pueden añadir caramelos");
+            return false;
+        }
+    
+        String uid = currentUser.getUid();
+        long counter = merge.addOperation(uid, opId, delta);
+        if (counter < 0) {
+            Log.d("GameBridge", "🍬 Operación " + opId + " ya aplicada, se ignora el reintento");
+            return false;
+        }
+        creditCandies(uid, delta, counter);
+        js.emitLatest("updateHUD");
+        return true;
+    }
+
+    /**
+     * Suma caramelos ganados en este dispositivo: contador propio (último valor, sin conflicto
+     * con otros dispositivos) + FieldValue.increment en candiesTotal, los dos por el buffer
+     * write-behind, y el contador apuntado en el diario hasta que Firestore lo confirme.
+     */
+    private void creditCandies(String uid, long delta, long counter) {
+        DocumentReference userRef = firestore.user(uid);
+        journal.append(uid, ProgressJournal.CANDIES, merge.getDeviceId(), counter);
+        
+        Map<String, Object> counters = new HashMap<>();
+        counters.put(merge.getDeviceId(), counter);
+        Long legacy = legacyCandies;
+        if (legacy != null && legacy > 0) {
+            counters.put(ProgressMerge.LEGACY_DEVICE, legacy);
+        }
+        writeBuffer.put(userRef, ProgressMerge.CANDIES_BY_DEVICE, counters);
+        writeBuffer.increment(userRef, "candiesTotal", delta);
+        userState = userState.withCandies(userState.getCandiesTotal() + delta);
+        Log.d("GameBridge", "🍬 +" + delta + " caramelos (contador " + merge.getDeviceId() + " = " + counter + ")");
+    }
+
+    /**
+     * Vuelca inmediatamente las escrituras pendientes del buffer write-behind.
+     * Se llama desde MainActivity.onPause y antes de cerrar sesión.
+     */
+    @JavascriptInterface
+    public void flushPendingWrites() {
+        long metricsStart = metrics.enter("flushPendingWrites");
+        try {
+            flushPendingWritesImpl();
+        } finally {
+            metrics.exit("flushPendingWrites", metricsStart);
+        }
+    }
+
+    private void flushPendingWritesImpl() {
+        writeBuffer.flush();
+        saveUserSnapshot(userState);
+    }
+
+    /**
+     * Cambia el intervalo de volcado del buffer write-behind (ms).
+     */
+    @JavascriptInterface
+    public void setWriteFlushInterval(int intervalMs) {
+        long metricsStart = metrics.enter("setWriteFlushInterval");
+        try {
+            Log.d("GameBridge", "setWriteFlushInterval() - " + intervalMs + " ms");
+            writeBuffer.setFlushInterval(intervalMs);
+        } finally {
+            metrics.exit("setWriteFlushInterval", metricsStart);
         }
     }
 
     @JavascriptInterface
     public void updateBestLevel(String gameId, int level) {
+        long metricsStart = metrics.enter("updateBestLevel");
+        try {
+            updateBestLevelImpl(gameId, level);
+        } finally {
+            metrics.exit("updateBestLevel", metricsStart);
+        }
+    }
+
+    private void updateBestLevelImpl(String gameId, int level) {
         Log.e("GameBridge", "🔥🔥🔥 updateBestLevel() LLAMADO - juego: " + gameId + ", nivel: " + level + " 🔥🔥🔥");
-        
+    
         if (currentUser == null) {
             currentUser = mAuth.getCurrentUser();
         }
-        
+    
         if (currentUser != null) {
             String uid = currentUser.getUid();
-            DocumentReference progressRef = db
-                .collection("apps").document(APP_ID)
-                .collection("progress").document(uid + "_" + gameId);
-            
-            DocumentReference userRef = db
-                .collection("apps").document(APP_ID)
-                .collection("users").document(uid);
-            
-            // TRANSACCIÓN ATÓMICA: actualizar nivel Y caramelos
-            db.runTransaction(transaction -> {
-                DocumentSnapshot progressSnap = transaction.get(progressRef);
-                long currentLevel = 0L;
-                if (progressSnap.exists()) {
-                    Long v = progressSnap.getLong("bestLevel");
-                    currentLevel = (v != null) ? v : 0L;
-                }
-                
-                if (level > currentLevel) {
-                    // Actualizar nivel máximo
-                    Map<String, Object> progressData = new HashMap<>();
-                    progressData.put("uid", uid);
-                    progressData.put("gameId", gameId);
-                    progressData.put("bestLevel", (long) level);
-                    progressData.put("updatedAt", FieldValue.serverTimestamp());
-                    transaction.set(progressRef, progressData, SetOptions.merge());
-                    
-                    // NO añadir caramelos automáticamente - JavaScript se encarga de eso
-                    transaction.update(userRef, "lastSeen", FieldValue.serverTimestamp());
-                    
-                    Log.e("GameBridge", "🔥🔥🔥 Nivel ↑ " + currentLevel + " → " + level + " ("+gameId+") (sin caramelos - JS los añade) 🔥🔥🔥");
-                } else {
-                    // Nivel igual o menor - solo actualizar lastSeen
-                    transaction.update(userRef, "lastSeen", FieldValue.serverTimestamp());
-                    Log.e("GameBridge", "🔥🔥🔥 Nivel sin cambio ("+gameId+"): " + currentLevel + " ≥ " + level + " 🔥🔥🔥");
-                }
-                return null;
-            }).addOnSuccessListener(v -> {
-                Log.d("GameBridge", "🎉 Transacción completada exitosamente para " + gameId);
-            }).addOnFailureListener(e -> {
-                Log.e("GameBridge", "❌ tx bestLevel falló", e);
-            });
+            if (!progressStore.updateBestLevel(uid, gameId, level)) {
+                Log.d("GameBridge", "Nivel sin cambio (" + gameId + "): ya hay uno ≥ " + level);
+                return;
+            }
+            // Apuntado en el diario antes de escribir (se reaplica si no llega a confirmarse)
+            long journalSeq = journal.append(uid, ProgressJournal.BEST_LEVEL, gameId, level);
+            String authPhotoURL = currentUser.getPhotoUrl() != null ? currentUser.getPhotoUrl().toString() : null;
+        
+            // Registro máximo: escritura a ciegas, sin transacción ni lectura previa.
+            // Si otro dispositivo ya subió más, las reglas la rechazan y el nivel remoto se queda
+            metrics.track("firestore:updateBestLevel", firestore.set("progress.bestLevel",
+                    firestore.progressDoc(uid + "_" + gameId),
+                    bestLevelData(uid, gameId, level, authPhotoURL), SetOptions.merge()))
+                .addOnSuccessListener(v -> {
+                    Log.d("GameBridge", "🎉 Nivel " + level + " guardado para " + gameId);
+                    journal.acknowledge(Collections.singletonList(journalSeq));
+                })
+                .addOnFailureListener(e -> {
+                    if (ProgressMerge.isRejectedWrite(e)) {
+                        Log.d("GameBridge", "Nivel " + level + " (" + gameId + ") rechazado: el remoto ya es igual o mayor");
+                        journal.acknowledge(Collections.singletonList(journalSeq));
+                    } else {
+                        Log.e("GameBridge", "❌ Error guardando nivel, queda en el diario", e);
+                    }
+                });
         } else {
             Log.w("GameBridge", "⚠️ Usuario no logueado, no se puede guardar progreso");
         }
     }
 
+    /**
+     * Datos de un registro máximo de nivel: nivel + copia desnormalizada del jugador para el
+     * ranking (sin la copia si aún no conocemos el nick, para no pisarla con null).
+     */
+    private Map<String, Object> bestLevelData(String uid, String gameId, long level, String authPhotoURL) {
+        Map<String, Object> progressData = new HashMap<>();
+        progressData.put("uid", uid);
+        progressData.put("gameId", gameId);
+        progressData.put("bestLevel", level);
+        progressData.put("updatedAt", FieldValue.serverTimestamp());
+        UserState state = userState;
+        if (state.getNick() != null) {
+            progressData.put(LeaderboardService.PLAYER_FIELD,
+                LeaderboardService.playerCopy(state.getNick(), authPhotoURL, state.getCandiesTotal()));
+        }
+        return progressData;
+    }
+
+    /**
+     * Reescribe la copia del jugador en sus documentos de progreso con el nick y los caramelos
+     * actuales. Por caramelos (force = false) como mucho una vez cada PLAYER_COPY_REFRESH_MS.
+     */
+    private void refreshPlayerCopy(String uid, boolean force) {
+        UserState state = userState;
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (state.getNick() == null || user == null || !user.getUid().equals(uid)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!force && playerCopyRefreshedAt != 0 && now - playerCopyRefreshedAt < LeaderboardService.PLAYER_COPY_REFRESH_MS) {
+            return;
+        }
+        playerCopyRefreshedAt = now;
+        String photoURL = user.getPhotoUrl() != null ? user.getPhotoUrl().toString() : null;
+        leaderboard.refreshPlayerCopy(uid, LeaderboardService.playerCopy(state.getNick(), photoURL, state.getCandiesTotal()));
+    }
+
+    /**
+     * Reaplica lo pendiente del diario offline (lo llama storage.js al volver la conexión).
+     */
+    @JavascriptInterface
+    public void replayJournal() {
+        long metricsStart = metrics.enter("replayJournal");
+        try {
+            replayJournalImpl();
+        } finally {
+            metrics.exit("replayJournal", metricsStart);
+        }
+    }
+
+    private void replayJournalImpl() {
+        replayPendingJournal();
+    }
+
+    /**
+     * Aplica en un solo batch todo lo pendiente del usuario en el diario: nivel máximo por juego
+     * y contador de caramelos de este dispositivo. Las dos cosas son idempotentes (registro
+     * máximo y contador propio), así que no hace falta leer antes. Al confirmarse se marcan
+     * como aplicadas exactamente las entradas incluidas; lo que se apunte mientras tanto queda
+     * para la siguiente.
+     */
+    private void replayPendingJournal() {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        String uid = user.getUid();
+        List<ProgressJournal.Entry> entries = journal.pending(uid);
+        if (entries.isEmpty() || !journalReplaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        Map<String, Long> levels = new HashMap<>();
+        Map<String, List<Long>> levelSeqs = new HashMap<>();
+        Map<String, Object> counters = new HashMap<>();
+        List<Long> counterSeqs = new ArrayList<>();
+        for (ProgressJournal.Entry entry : entries) {
+            if (entry.getType() == ProgressJournal.BEST_LEVEL) {
+                Long current = levels.get(entry.getKey());
+                if (current == null || current < entry.getValue()) {
+                    levels.put(entry.getKey(), entry.getValue());
+                }
+                List<Long> seqs = levelSeqs.get(entry.getKey());
+                if (seqs == null) {
+                    seqs = new ArrayList<>();
+                    levelSeqs.put(entry.getKey(), seqs);
+                }
+                seqs.add(entry.getSeq());
+            } else if (entry.getType() == ProgressJournal.CANDIES) {
+                counters.put(entry.getKey(), entry.getValue());
+                counterSeqs.add(entry.getSeq());
+            }
+        }
+        String authPhotoURL = user.getPhotoUrl() != null ? user.getPhotoUrl().toString() : null;
+        DocumentReference userRef = firestore.user(uid);
+        Map<String, Object> userData = new HashMap<>();
+        userData.put(ProgressMerge.CANDIES_BY_DEVICE, counters);
+        userData.put("lastSeen", FieldValue.serverTimestamp());
+        Log.d("GameBridge", "📒 Reaplicando diario: " + entries.size() + " entradas, niveles " + levels + ", contadores " + counters);
+
+        FirestoreAccess.Batch batch = firestore.batch("journal.replay");
+        for (Map.Entry<String, Long> level : levels.entrySet()) {
+            batch.set(firestore.progressDoc(uid + "_" + level.getKey()),
+                bestLevelData(uid, level.getKey(), level.getValue(), authPhotoURL), SetOptions.merge());
+        }
+        if (!counters.isEmpty()) {
+            batch.set(userRef, userData, SetOptions.merge());
+        }
+        metrics.track("firestore:replayJournal", batch.commit()).addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                List<Long> seqs = new ArrayList<>(counterSeqs);
+                for (List<Long> gameSeqs : levelSeqs.values()) {
+                    seqs.addAll(gameSeqs);
+                }
+                finishJournalReplay(uid, seqs);
+            } else if (ProgressMerge.isRejectedWrite(task.getException())) {
+                // Algún nivel ya es mayor en remoto y las reglas tumban el batch entero:
+                // se reintenta documento a documento
+                replayJournalOneByOne(uid, levels, levelSeqs, counters.isEmpty() ? null : userData, counterSeqs, authPhotoURL);
+            } else {
+                journalReplaying.set(false);
+                Log.w("GameBridge", "⚠️ No se pudo aplicar el diario, se reintentará con red", task.getException());
+            }
+        });
+    }
+
+    private void replayJournalOneByOne(String uid, Map<String, Long> levels, Map<String, List<Long>> levelSeqs,
+                                       Map<String, Object> userData, List<Long> counterSeqs, String authPhotoURL) {
+        List<Task<Void>> writes = new ArrayList<>();
+        List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+        for (Map.Entry<String, Long> level : levels.entrySet()) {
+            List<Long> seqs = levelSeqs.get(level.getKey());
+            writes.add(firestore.set("journal.replay", firestore.progressDoc(uid + "_" + level.getKey()),
+                    bestLevelData(uid, level.getKey(), level.getValue(), authPhotoURL), SetOptions.merge())
+                .addOnCompleteListener(task -> {
+                    // Rechazado = el remoto ya es igual o mayor: también está aplicado
+                    if (task.isSuccessful() || ProgressMerge.isRejectedWrite(task.getException())) {
+                        applied.addAll(seqs);
+                    }
+                }));
+        }
+        if (userData != null) {
+            writes.add(firestore.set("journal.replay", firestore.user(uid), userData, SetOptions.merge())
+                .addOnSuccessListener(v -> applied.addAll(counterSeqs)));
+        }
+        Tasks.whenAllComplete(writes).addOnCompleteListener(task -> finishJournalReplay(uid, applied));
+    }
+
+    private void finishJournalReplay(String uid, List<Long> applied) {
+        journal.acknowledge(applied);
+        journalReplaying.set(false);
+        Log.d("GameBridge", "✅ Diario aplicado (" + applied.size() + " entradas)");
+        if (!applied.isEmpty() && !journal.pending(uid).isEmpty()) {
+            replayPendingJournal();
+        }
+    }
+
     @JavascriptInterface
     public void testAuth() {
-        Log.d("GameBridge", "testAuth() llamado desde JavaScript");
+        long metricsStart = metrics.enter("testAuth");
+        try {
+            Log.d("GameBridge", "testAuth() llamado desde JavaScript");
         
-        // Verificar autenticación real
-        FirebaseUser realUser = mAuth.getCurrentUser();
-        Log.d("GameBridge", "testAuth() - mAuth.getCurrentUser(): " + (realUser != null ? realUser.getUid() : "NULL"));
+            // Verificar autenticación real
+            FirebaseUser realUser = mAuth.getCurrentUser();
+            Log.d("GameBridge", "testAuth() - mAuth.getCurrentUser(): " + (realUser != null ? realUser.getUid() : "NULL"));
         
-        // Verificar currentUser
-        Log.d("GameBridge", "testAuth() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
+            // Verificar currentUser
+            Log.d("GameBridge", "testAuth() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
         
-        // Enviar resultado al WebView
-        activity.runOnUiThread(() -> {
-            WebView webView = activity.findViewById(R.id.webview);
+            // Enviar resultado al WebView
             String result = realUser != null ? "AUTHENTICATED" : "NOT_AUTHENTICATED";
-            webView.evaluateJavascript(
-                "console.log('🔐 testAuth resultado: " + result + "');",
-                null
-            );
-        });
+            js.run("console.log('🔐 testAuth resultado: " + result + "');");
+        } finally {
+            metrics.exit("testAuth", metricsStart);
+        }
     }
 
     @JavascriptInterface
     public void testDirectSet(String gameId, int level) {
-        Log.d("GameBridge", "testDirectSet() llamado - juego: " + gameId + ", nivel: " + level);
+        long metricsStart = metrics.enter("testDirectSet");
+        try {
+            Log.d("GameBridge", "testDirectSet() llamado - juego: " + gameId + ", nivel: " + level);
         
-        if (currentUser == null) {
-            currentUser = mAuth.getCurrentUser();
-        }
+            if (currentUser == null) {
+                currentUser = mAuth.getCurrentUser();
+            }
         
-        if (currentUser != null) {
-            String uid = currentUser.getUid();
-            DocumentReference progressRef = db
-                .collection("apps").document(APP_ID)
-                .collection("progress").document(uid + "_" + gameId);
+            if (currentUser != null) {
+                String uid = currentUser.getUid();
+                DocumentReference progressRef = firestore.progressDoc(uid + "_" + gameId);
             
-            Log.d("GameBridge", "testDirectSet() - Ruta: apps/" + APP_ID + "/progress/" + uid + "_" + gameId);
+                Log.d("GameBridge", "testDirectSet() - Ruta: apps/" + APP_ID + "/progress/" + uid + "_" + gameId);
             
-            // Usar set() directo en lugar de transacción
-            Map<String, Object> data = new HashMap<>();
-            data.put("uid", uid);
-            data.put("gameId", gameId);
-            data.put("bestLevel", (long) level);
-            data.put("updatedAt", FieldValue.serverTimestamp());
+                // Usar set() directo en lugar de transacción
+                Map<String, Object> data = new HashMap<>();
+                data.put("uid", uid);
+                data.put("gameId", gameId);
+                data.put("bestLevel", (long) level);
+                data.put("updatedAt", FieldValue.serverTimestamp());
             
-            progressRef.set(data, SetOptions.merge())
-                .addOnSuccessListener(v -> {
-                    Log.d("GameBridge", "✅ testDirectSet EXITOSO - " + gameId + " nivel " + level);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("GameBridge", "❌ testDirectSet FALLÓ - " + gameId, e);
-                });
-        } else {
-            Log.w("GameBridge", "testDirectSet() - Usuario no logueado");
+                metrics.track("firestore:testDirectSet", firestore.set("progress.testDirectSet", progressRef, data, SetOptions.merge()))
+                    .addOnSuccessListener(v -> {
+                        Log.d("GameBridge", "✅ testDirectSet EXITOSO - " + gameId + " nivel " + level);
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.e("GameBridge", "❌ testDirectSet FALLÓ - " + gameId, e);
+                    });
+            } else {
+                Log.w("GameBridge", "testDirectSet() - Usuario no logueado");
+            }
+        } finally {
+            metrics.exit("testDirectSet", metricsStart);
         }
     }
 
     @JavascriptInterface
     public void getBestLevel(String gameId) {
-        Log.d("GameBridge", "getBestLevel() llamado para juego: " + gameId);
+        long metricsStart = metrics.enter("getBestLevel");
+        try {
+            Log.d("GameBridge", "getBestLevel() llamado para juego: " + gameId);
+            fetchBestLevel(gameId, level -> {
+                if (level != null) {
+                    Log.d("GameBridge", "📤 Enviando a JavaScript: onBestLevelReceived(" + gameId + ", " + level + ")");
+                    js.emit("onBestLevelReceived", gameId, level);
+                }
+            });
+        } finally {
+            metrics.exit("getBestLevel", metricsStart);
+        }
+    }
+
+    /**
+     * Nivel máximo guardado en Firestore para un juego: 0 si no hay documento,
+     * null si no hay sesión o la lectura falla.
+     */
+    private void fetchBestLevel(String gameId, Reply reply) {
         try {
             currentUser = mAuth.getCurrentUser();
             if (currentUser != null) {
                 String uid = currentUser.getUid();
                 Log.d("GameBridge", "getBestLevel() - UID: " + uid);
                 
-                DocumentReference progressRef = db
-                    .collection("apps").document(APP_ID)
-                    .collection("progress").document(uid + "_" + gameId);
+                DocumentReference progressRef = firestore.progressDoc(uid + "_" + gameId);
                 
                 Log.d("GameBridge", "getBestLevel() - Ruta: apps/" + APP_ID + "/progress/" + uid + "_" + gameId);
                 
-                progressRef.get().addOnCompleteListener(task -> {
+                metrics.track("firestore:getBestLevel", firestore.get("progress.getBestLevel", progressRef)).addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         DocumentSnapshot doc = task.getResult();
                         Log.d("GameBridge", "getBestLevel() - Documento existe: " + doc.exists());
@@ -301,90 +691,244 @@ public class GameBridge {
                             Long bestLevel = doc.getLong("bestLevel");
                             int level = (bestLevel != null) ? bestLevel.intValue() : 0;
                             Log.d("GameBridge", "getBestLevel() - Nivel encontrado: " + level);
-                            
-                            // Enviar resultado al WebView
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onBestLevelReceived) { window.onBestLevelReceived('" + gameId + "', " + level + "); }";
-                                Log.d("GameBridge", "📤 Enviando a JavaScript: " + jsCode);
-                                webView.evaluateJavascript(jsCode, null);
-                            });
+                            progressStore.updateBestLevel(uid, gameId, level);
+                            reply.onResult(level);
                         } else {
                             Log.d("GameBridge", "getBestLevel() - Documento no existe, devolviendo 0");
                             // No hay progreso guardado
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onBestLevelReceived) { window.onBestLevelReceived('" + gameId + "', 0); }";
-                                Log.d("GameBridge", "📤 Enviando a JavaScript (nivel 0): " + jsCode);
-                                webView.evaluateJavascript(jsCode, null);
-                            });
+                            reply.onResult(0);
                         }
                     } else {
                         Log.e("GameBridge", "getBestLevel() - Error en la consulta", task.getException());
+                        reply.onResult(null);
                     }
                 });
             } else {
                 Log.w("GameBridge", "getBestLevel() - Usuario no logueado");
+                reply.onResult(null);
             }
         } catch (Exception e) {
             Log.e("GameBridge", "Error inesperado en getBestLevel", e);
+            reply.onResult(null);
         }
     }
 
+    /**
+     * Lectura síncrona del nivel máximo desde el almacén local (memoria + SQLite).
+     * No toca la red: devuelve 0 si no hay dato o no hay sesión.
+     */
     @JavascriptInterface
-    public void openRanking() {
-        Log.d("GameBridge", "openRanking() llamado desde JavaScript");
-        
+    public int getBestLevelSync(String gameId) {
+        long metricsStart = metrics.enter("getBestLevelSync");
+        try {
+            return getBestLevelSyncImpl(gameId);
+        } finally {
+            metrics.exit("getBestLevelSync", metricsStart);
+        }
+    }
+
+    private int getBestLevelSyncImpl(String gameId) {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null) {
+            return 0;
+        }
+        return progressStore.getBestLevel(user.getUid(), gameId);
+    }
+
+    /**
+     * Sincroniza todos los niveles en un solo viaje nativo:
+     * lee todos los documentos apps/aray/progress/{uid}_* con una consulta,
+     * calcula max(local, remoto) por juego y sube en un WriteBatch los niveles mejorados.
+     * El resultado combinado se devuelve a JS vía window.onProgressSynced(merged, ok).
+     *
+     * @param localJson objeto JSON {gameId: bestLevel} con los niveles locales
+     */
+    @JavascriptInterface
+    public void syncProgress(String localJson) {
+        long metricsStart = metrics.enter("syncProgress");
+        try {
+            Log.d("GameBridge", "syncProgress() llamado con: " + localJson);
+            runSyncProgress(localJson, this::sendProgressSynced);
+        } finally {
+            metrics.exit("syncProgress", metricsStart);
+        }
+    }
+
+    private void runSyncProgress(String localJson, SyncCallback callback) {
+
+        Map<String, Long> localLevels = new HashMap<>();
+        try {
+            JSONObject local = new JSONObject(localJson != null ? localJson : "{}");
+            JSONArray names = local.names();
+            if (names != null) {
+                for (int i = 0; i < names.length(); i++) {
+                    String gameId = names.getString(i);
+                    localLevels.put(gameId, local.optLong(gameId, 0L));
+                }
+            }
+        } catch (JSONException e) {
+            Log.e("GameBridge", "syncProgress() - JSON local inválido", e);
+        }
+
+        currentUser = mAuth.getCurrentUser();
         if (currentUser == null) {
-            currentUser = mAuth.getCurrentUser();
+            Log.w("GameBridge", "syncProgress() - Usuario no logueado, devolviendo niveles locales");
+            callback.onResult(localLevels, false);
+            return;
+        }
+
+        String uid = currentUser.getUid();
+        String prefix = uid + "_";
+        String photoURL = currentUser.getPhotoUrl() != null ? currentUser.getPhotoUrl().toString() : null;
+
+        // Una sola consulta por rango de ID de documento: {uid}_*
+        metrics.track("firestore:syncProgress.read", firestore.get("progress.sync", FirestoreAccess.PROGRESS,
+                firestore.progress()
+                    .orderBy(FieldPath.documentId())
+                    .startAt(prefix)
+                    .endAt(prefix + "\uf8ff")))
+            .addOnCompleteListener(task -> {
+                if (!task.isSuccessful()) {
+                    Log.e("GameBridge", "syncProgress() - Error leyendo progreso", task.getException());
+                    callback.onResult(localLevels, false);
+                    return;
+                }
+
+                Map<String, Long> remoteLevels = new HashMap<>();
+                for (QueryDocumentSnapshot doc : task.getResult()) {
+                    String gameId = doc.getId().substring(prefix.length());
+                    Long bestLevel = doc.getLong("bestLevel");
+                    remoteLevels.put(gameId, bestLevel != null ? bestLevel : 0L);
+                    progressStore.updateBestLevel(uid, gameId, bestLevel != null ? bestLevel.intValue() : 0);
+                }
+
+                Map<String, Long> merged = new HashMap<>(remoteLevels);
+                FirestoreAccess.Batch batch = firestore.batch("progress.sync");
+                // Niveles que suben: se apuntan en el diario antes de escribir y el store local
+                // solo los adopta cuando el batch se confirma (si falla, los reaplica el diario)
+                Map<String, Long> improvedLevels = new HashMap<>();
+                List<Long> journalSeqs = new ArrayList<>();
+
+                for (Map.Entry<String, Long> entry : localLevels.entrySet()) {
+                    String gameId = entry.getKey();
+                    long localLevel = entry.getValue();
+                    Long remote = remoteLevels.get(gameId);
+                    long remoteLevel = remote != null ? remote : 0L;
+
+                    merged.put(gameId, Math.max(localLevel, remoteLevel));
+
+                    if (localLevel > remoteLevel) {
+                        journalSeqs.add(journal.append(uid, ProgressJournal.BEST_LEVEL, gameId, localLevel));
+                        batch.set(firestore.progressDoc(prefix + gameId),
+                            bestLevelData(uid, gameId, localLevel, photoURL), SetOptions.merge());
+                        improvedLevels.put(gameId, localLevel);
+                        Log.d("GameBridge", "syncProgress() - Nivel ↑ " + remoteLevel + " → " + localLevel + " (" + gameId + ")");
+                    }
+                }
+
+                if (improvedLevels.isEmpty()) {
+                    Log.d("GameBridge", "✅ syncProgress() - Sin cambios que subir");
+                    callback.onResult(merged, true);
+                    return;
+                }
+
+                Map<String, Object> userTouch = new HashMap<>();
+                userTouch.put("lastSeen", FieldValue.serverTimestamp());
+                batch.set(firestore.user(uid), userTouch, SetOptions.merge());
+
+                metrics.track("firestore:syncProgress.commit", batch.commit()).addOnCompleteListener(batchTask -> {
+                    if (batchTask.isSuccessful()) {
+                        for (Map.Entry<String, Long> level : improvedLevels.entrySet()) {
+                            progressStore.updateBestLevel(uid, level.getKey(), level.getValue().intValue());
+                        }
+                        journal.acknowledge(journalSeqs);
+                        Log.d("GameBridge", "🎉 syncProgress() - " + improvedLevels.size() + " niveles subidos en un batch");
+                    } else {
+                        Log.e("GameBridge", "❌ syncProgress() - batch falló", batchTask.getException());
+                    }
+                    callback.onResult(merged, batchTask.isSuccessful());
+                });
+            });
+    }
+
+    private void sendProgressSynced(Map<String, Long> levels, boolean ok) {
+        js.emit("onProgressSynced", levelsJson(levels), ok);
+    }
+
+    private static JSONObject levelsJson(Map<String, Long> levels) {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Long> entry : levels.entrySet()) {
+                json.put(entry.getKey(), entry.getValue());
+            }
+        } catch (JSONException e) {
+            Log.e("GameBridge", "Error creando JSON en syncProgress()", e);
         }
+        return json;
+    }
+
+    @JavascriptInterface
+    public void openRanking() {
+        long metricsStart = metrics.enter("openRanking");
+        try {
+            Log.d("GameBridge", "openRanking() llamado desde JavaScript");
         
-        Log.d("GameBridge", "openRanking() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
+            if (currentUser == null) {
+                currentUser = mAuth.getCurrentUser();
+            }
         
-        if (currentUser == null) {
-            // Usuario no logueado, iniciar flujo de login desde ranking
-            Log.d("GameBridge", "openRanking() - Usuario no logueado, iniciando login...");
-            activity.runOnUiThread(() -> activity.showRanking());
-        } else {
-            // Usuario logueado, mostrar ranking directamente
-            Log.d("GameBridge", "openRanking() - Usuario logueado, mostrando ranking...");
-            activity.runOnUiThread(() -> activity.showRanking());
+            Log.d("GameBridge", "openRanking() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
+        
+            if (currentUser == null) {
+                // Usuario no logueado, iniciar flujo de login desde ranking
+                Log.d("GameBridge", "openRanking() - Usuario no logueado, iniciando login...");
+                activity.runOnUiThread(() -> activity.showRanking());
+            } else {
+                // Usuario logueado, mostrar ranking directamente
+                Log.d("GameBridge", "openRanking() - Usuario logueado, mostrando ranking...");
+                activity.runOnUiThread(() -> activity.showRanking());
+            }
+        } finally {
+            metrics.exit("openRanking", metricsStart);
         }
     }
 
     @JavascriptInterface
     public String getTop20() {
-        // Siempre verificar el estado actual del usuario
-        currentUser = mAuth.getCurrentUser();
+        long metricsStart = metrics.enter("getTop20");
+        try {
+            // Siempre verificar el estado actual del usuario
+            currentUser = mAuth.getCurrentUser();
         
-        Log.d("GameBridge", "getTop20() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
-        Log.d("GameBridge", "getTop20() - APP_ID: " + APP_ID);
+            Log.d("GameBridge", "getTop20() - currentUser: " + (currentUser != null ? currentUser.getUid() : "NULL"));
+            Log.d("GameBridge", "getTop20() - APP_ID: " + APP_ID);
         
-        if (currentUser == null) {
-            // Usuario no logueado, iniciar flujo de login desde ranking
-            Log.d("GameBridge", "Usuario no logueado, iniciando login...");
-            Log.d("GameBridge", "Llamando a activity.showRanking()...");
-            activity.runOnUiThread(() -> {
-                Log.d("GameBridge", "Ejecutando showRanking en UI thread...");
-                activity.showRanking();
-            });
-            return "[]";
-        }
+            if (currentUser == null) {
+                // Usuario no logueado, iniciar flujo de login desde ranking
+                Log.d("GameBridge", "Usuario no logueado, iniciando login...");
+                Log.d("GameBridge", "Llamando a activity.showRanking()...");
+                activity.runOnUiThread(() -> {
+                    Log.d("GameBridge", "Ejecutando showRanking en UI thread...");
+                    activity.showRanking();
+                });
+                return "[]";
+            }
 
-        // Usuario logueado, cargar ranking
-        Log.d("GameBridge", "Usuario logueado, cargando ranking...");
-        loadRanking();
-        return "[]"; // Retorno inmediato, el ranking llega via callback
+            // Usuario logueado, cargar ranking
+            Log.d("GameBridge", "Usuario logueado, cargando ranking...");
+            loadRanking();
+            return "[]"; // Retorno inmediato, el ranking llega via callback
+        } finally {
+            metrics.exit("getTop20", metricsStart);
+        }
     }
     
     private void loadRanking() {
-        Query query = db
-            .collection("apps").document(APP_ID)
-            .collection("users")
+        Query query = firestore.users()
             .orderBy("candiesTotal", Query.Direction.DESCENDING)
             .limit(20);
         
-        query.get().addOnCompleteListener(task -> {
+        metrics.track("firestore:getTop20", firestore.get("ranking.top20", FirestoreAccess.USERS, query)).addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
                 JSONArray ranking = new JSONArray();
                 int position = 1;
@@ -402,84 +946,91 @@ public class GameBridge {
                 }
                 
                 // Enviar ranking al WebView
-                final String rankingJson = ranking.toString();
-                activity.runOnUiThread(() -> {
-                    WebView webView = activity.findViewById(R.id.webview);
-                    webView.evaluateJavascript(
-                        "if (window.onRankingReceived) { window.onRankingReceived(" + rankingJson + "); }",
-                        null
-                    );
-                });
+                js.emit("onRankingReceived", ranking);
             }
         });
     }
 
     @JavascriptInterface
     public void setNick(String nick) {
+        long metricsStart = metrics.enter("setNick");
         try {
-            if (currentUser == null) {
-                currentUser = mAuth.getCurrentUser();
-            }
+            try {
+                if (currentUser == null) {
+                    currentUser = mAuth.getCurrentUser();
+                }
             
-            if (currentUser != null && nick != null && !nick.trim().isEmpty()) {
-            String lowerNick = nick.toLowerCase().trim();
-            String uid = currentUser.getUid();
+                if (currentUser != null && nick != null && !nick.trim().isEmpty()) {
+                    String lowerNick = nick.toLowerCase().trim();
+                    String uid = currentUser.getUid();
             
-            // Verificar si el nick ya existe
-            DocumentReference nickRef = db.collection("apps").document(APP_ID).collection("nicks").document(lowerNick);
-            nickRef.get().addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    DocumentSnapshot document = task.getResult();
-                    if (document.exists()) {
-                        // Nick ya existe
-                        activity.runOnUiThread(() -> {
-                            Toast.makeText(activity, "Nick en uso", Toast.LENGTH_SHORT).show();
-                        });
-                    } else {
-                        // Nick disponible, crear
-                        WriteBatch batch = db.batch();
+                    // Verificar si el nick ya existe
+                    DocumentReference nickRef = firestore.nick(lowerNick);
+                    metrics.track("firestore:setNick.check", firestore.get("nick.check", nickRef)).addOnCompleteListener(task -> {
+                        if (task.isSuccessful()) {
+                            DocumentSnapshot document = task.getResult();
+                            if (document.exists()) {
+                                // Nick ya existe
+                                activity.runOnUiThread(() -> {
+                                    Toast.makeText(activity, "Nick en uso", Toast.LENGTH_SHORT).show();
+                                });
+                            } else {
+                                // Nick disponible, crear
+                                FirestoreAccess.Batch batch = firestore.batch("nick.set");
                         
-                        // Crear reserva de nick
-                        Map<String, Object> nickData = new HashMap<>();
-                        nickData.put("uid", uid);
-                        nickData.put("nick", nick);
-                        nickData.put("createdAt", System.currentTimeMillis());
-                        batch.set(nickRef, nickData);
+                                // Crear reserva de nick
+                                Map<String, Object> nickData = new HashMap<>();
+                                nickData.put("uid", uid);
+                                nickData.put("nick", nick);
+                                nickData.put("createdAt", System.currentTimeMillis());
+                                batch.set(nickRef, nickData);
                         
-                        // Actualizar usuario
-                        DocumentReference userRef = db
-                            .collection("apps").document(APP_ID)
-                            .collection("users").document(uid);
-                        Map<String, Object> userUpdate = new HashMap<>();
-                        userUpdate.put("nick", nick);
-                        userUpdate.put("lastSeen", FieldValue.serverTimestamp());
-                        batch.update(userRef, userUpdate);
+                                // Actualizar usuario
+                                DocumentReference userRef = firestore.user(uid);
+                                Map<String, Object> userUpdate = new HashMap<>();
+                                userUpdate.put("nick", nick);
+                                userUpdate.put("lastSeen", FieldValue.serverTimestamp());
+                                batch.update(userRef, userUpdate);
                         
-                        batch.commit().addOnCompleteListener(batchTask -> {
-                            if (batchTask.isSuccessful()) {
-                                activity.runOnUiThread(() -> {
-                                    Toast.makeText(activity, "Nick guardado: " + nick, Toast.LENGTH_SHORT).show();
+                                metrics.track("firestore:setNick.commit", batch.commit()).addOnCompleteListener(batchTask -> {
+                                    if (batchTask.isSuccessful()) {
+                                        userState = userState.withNick(nick);
+                                        refreshPlayerCopy(uid, true);
+                                        activity.runOnUiThread(() -> {
+                                            Toast.makeText(activity, "Nick guardado: " + nick, Toast.LENGTH_SHORT).show();
+                                        });
+                                    }
                                 });
                             }
-                        });
-                    }
+                        }
+                    });
+                } else {
+                    activity.runOnUiThread(() -> {
+                        Toast.makeText(activity, "Nick inválido", Toast.LENGTH_SHORT).show();
+                    });
                 }
-            });
-            } else {
+            } catch (Exception e) {
                 activity.runOnUiThread(() -> {
-                    Toast.makeText(activity, "Nick inválido", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(activity, "Error inesperado: " + e.getMessage(), Toast.LENGTH_LONG).show();
                 });
             }
-        } catch (Exception e) {
-            activity.runOnUiThread(() -> {
-                Toast.makeText(activity, "Error inesperado: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            });
+        } finally {
+            metrics.exit("setNick", metricsStart);
         }
     }
 
     // ========== MÉTODOS DE ANUNCIOS ==========
     @JavascriptInterface
     public void onGamePlayed() {
+        long metricsStart = metrics.enter("onGamePlayed");
+        try {
+            onGamePlayedImpl();
+        } finally {
+            metrics.exit("onGamePlayed", metricsStart);
+        }
+    }
+
+    private void onGamePlayedImpl() {
         if (adManager != null) {
             adManager.onGamePlayed();
         }
@@ -487,63 +1038,108 @@ public class GameBridge {
 
     @JavascriptInterface
     public void refreshUserData() {
-        Log.d("GameBridge", "refreshUserData() llamado desde JavaScript");
-        loadUserData();
+        long metricsStart = metrics.enter("refreshUserData");
+        try {
+            Log.d("GameBridge", "refreshUserData() llamado desde JavaScript");
+            loadUserData();
+        } finally {
+            metrics.exit("refreshUserData", metricsStart);
+        }
     }
     
     @JavascriptInterface
     public String testGameBridge() {
-        Log.d("GameBridge", "🧪 Test GameBridge llamado desde JavaScript");
-        return "GameBridge funcionando correctamente";
+        long metricsStart = metrics.enter("testGameBridge");
+        try {
+            Log.d("GameBridge", "🧪 Test GameBridge llamado desde JavaScript");
+            return "GameBridge funcionando correctamente";
+        } finally {
+            metrics.exit("testGameBridge", metricsStart);
+        }
     }
 
     @JavascriptInterface
     public void getCandiesAsync() {
-        if (mAuth.getCurrentUser()==null) return;
-        String uid = mAuth.getCurrentUser().getUid();
-        db.collection("apps").document(APP_ID).collection("users").document(uid)
-            .get().addOnSuccessListener(snap -> {
-                long candies = (snap.exists() && snap.getLong("candiesTotal")!=null) ? snap.getLong("candiesTotal") : 0L;
-                activity.runOnUiThread(() -> {
-                    WebView web = activity.findViewById(R.id.webview);
-                    web.evaluateJavascript("window.onCandies && window.onCandies("+candies+");", null);
-                });
-            });
+        long metricsStart = metrics.enter("getCandiesAsync");
+        try {
+            if (mAuth.getCurrentUser()==null) return;
+            String uid = mAuth.getCurrentUser().getUid();
+            // Con el listener activo el dato ya está en memoria; si no, lectura compartida
+            if (uid.equals(userListenerUid) && uid.equals(userState.getUid())) {
+                sendCandies(userState.getCandiesTotal());
+                return;
+            }
+            fetchUser(uid).addOnSuccessListener(snap -> sendCandies(userState.getCandiesTotal()));
+        } finally {
+            metrics.exit("getCandiesAsync", metricsStart);
+        }
+    }
+    
+    private void sendCandies(long candies) {
+        js.emitLatest("onCandies", candies);
     }
 
     @JavascriptInterface
     public void runDiagnosticTests() {
-        Log.d("GameBridge", "🧪 Ejecutando tests de diagnóstico...");
-        TestFirestore.runAllTests();
+        long metricsStart = metrics.enter("runDiagnosticTests");
+        try {
+            Log.d("GameBridge", "🧪 Ejecutando tests de diagnóstico...");
+            TestFirestore.runAllTests();
+        } finally {
+            metrics.exit("runDiagnosticTests", metricsStart);
+        }
     }
 
     @JavascriptInterface
     public void resetProgress(String gameId) {
-        Log.d("GameBridge", "resetProgress() llamado para juego: " + gameId);
-        if (currentUser == null) {
-            currentUser = mAuth.getCurrentUser();
-        }
-        if (currentUser != null) {
-            String uid = currentUser.getUid();
-            DocumentReference progressRef = db
-                .collection("apps").document(APP_ID)
-                .collection("progress").document(uid + "_" + gameId);
+        long metricsStart = metrics.enter("resetProgress");
+        try {
+            Log.d("GameBridge", "resetProgress() llamado para juego: " + gameId);
+            if (currentUser == null) {
+                currentUser = mAuth.getCurrentUser();
+            }
+            if (currentUser != null) {
+                String uid = currentUser.getUid();
+                DocumentReference progressRef = firestore.progressDoc(uid + "_" + gameId);
             
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("bestLevel", 1L);
-            updates.put("updatedAt", FieldValue.serverTimestamp());
+                // bestLevel solo puede bajar en una escritura cuyo resetAt es la hora del servidor
+                // (reglas de Firestore: resetAt == request.time, el cliente no puede inventarlo);
+                // el resto de escrituras no tocan resetAt, así que siguen siendo un registro máximo.
+                // El diario de este dispositivo se descarta, pero el de otro que aún tenga un
+                // nivel anterior pendiente lo volverá a subir al reaplicarlo (ver ProgressMerge)
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("uid", uid);
+                updates.put("gameId", gameId);
+                updates.put("bestLevel", 1L);
+                updates.put("resetAt", FieldValue.serverTimestamp());
+                updates.put("updatedAt", FieldValue.serverTimestamp());
             
-            progressRef.set(updates).addOnSuccessListener(aVoid -> {
-                Log.d("GameBridge", "✅ Progreso reseteado para " + gameId + " a nivel 1");
-            }).addOnFailureListener(e -> {
-                Log.e("GameBridge", "❌ Error reseteando progreso: " + e.getMessage());
-            });
+                progressStore.setBestLevel(uid, gameId, 1);
+                journal.discard(uid, ProgressJournal.BEST_LEVEL, gameId);
+            
+                metrics.track("firestore:resetProgress", firestore.set("progress.reset", progressRef, updates, SetOptions.merge())).addOnSuccessListener(aVoid -> {
+                    Log.d("GameBridge", "✅ Progreso reseteado para " + gameId + " a nivel 1");
+                }).addOnFailureListener(e -> {
+                    Log.e("GameBridge", "❌ Error reseteando progreso: " + e.getMessage());
+                });
+            }
+        } finally {
+            metrics.exit("resetProgress", metricsStart);
         }
     }
     
 
     @JavascriptInterface
     public boolean isUserLoggedIn() {
+        long metricsStart = metrics.enter("isUserLoggedIn");
+        try {
+            return isUserLoggedInImpl();
+        } finally {
+            metrics.exit("isUserLoggedIn", metricsStart);
+        }
+    }
+
+    private boolean isUserLoggedInImpl() {
         Log.d("GameBridge", "🔍 isUserLoggedIn() llamado desde JavaScript");
         currentUser = mAuth.getCurrentUser();
         boolean isLoggedIn = currentUser != null;
@@ -583,8 +1179,9 @@ public class GameBridge {
     }
 
     private String getNickFromCache() {
-        if (cachedNick != null && !cachedNick.isEmpty()) {
-            return cachedNick;
+        String nick = userState.getNick();
+        if (nick != null && !nick.isEmpty()) {
+            return nick;
         }
         // Si no hay usuario logueado, devolver "Invitado"
         if (currentUser == null) {
@@ -599,7 +1196,161 @@ public class GameBridge {
     }
     
     private long getCandiesFromFirestore() {
-        return cachedCandies;
+        return userState.getCandiesTotal();
+    }
+    
+    /**
+     * Mantiene el almacén local sincronizado con apps/aray/progress/{uid}_*
+     * mediante un único listener (como mucho un documento por juego).
+     */
+    private void listenToProgress(String uid) {
+        if (uid.equals(progressListenerUid) && progressListener != null) {
+            return;
+        }
+        stopListeningToProgress();
+        progressStore.preload(uid);
+        
+        String prefix = uid + "_";
+        progressListenerUid = uid;
+        progressListener = firestore.listen("progress.listen", FirestoreAccess.PROGRESS,
+            firestore.progress()
+                .orderBy(FieldPath.documentId())
+                .startAt(prefix)
+                .endAt(prefix + "\uf8ff"),
+            (snapshot, e) -> {
+                if (e != null || snapshot == null) {
+                    Log.e("GameBridge", "❌ Error en listener de progreso", e);
+                    return;
+                }
+                for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                    Long bestLevel = doc.getLong("bestLevel");
+                    if (bestLevel != null) {
+                        progressStore.updateBestLevel(uid, doc.getId().substring(prefix.length()), bestLevel.intValue());
+                    }
+                }
+            });
+    }
+    
+    private void stopListeningToProgress() {
+        if (progressListener != null) {
+            progressListener.remove();
+            progressListener = null;
+        }
+        progressListenerUid = null;
+    }
+    
+    /**
+     * Mantiene userState sincronizado con apps/aray/users/{uid} mediante un único
+     * listener de larga duración. Notifica al HUD solo si cambian caramelos o nick.
+     */
+    private void listenToUser(String uid) {
+        if (uid.equals(userListenerUid) && userListener != null) {
+            return;
+        }
+        stopListeningToUser();
+        
+        userListenerUid = uid;
+        userListener = firestore.listen("user.listen", firestore.user(uid), (snapshot, e) -> {
+            if (e != null || snapshot == null) {
+                Log.e("GameBridge", "❌ Error en listener de usuario", e);
+                return;
+            }
+            UserState previous = userState;
+            UserState next = applyUserSnapshot(uid, snapshot);
+            if (next != null && (previous.getCandiesTotal() != next.getCandiesTotal()
+                    || !Objects.equals(previous.getNick(), next.getNick()))) {
+                js.emitLatest("updateHUD");
+            }
+        });
+    }
+    
+    private void stopListeningToUser() {
+        if (userListener != null) {
+            userListener.remove();
+            userListener = null;
+        }
+        userListenerUid = null;
+    }
+    
+    /**
+     * Lectura del documento de usuario en modo single-flight: si ya hay una en vuelo
+     * para el mismo uid se devuelve esa misma Task, así que refreshUserData,
+     * getCandiesAsync y loadUserData concurrentes cuestan una sola lectura.
+     */
+    private synchronized Task<DocumentSnapshot> fetchUser(String uid) {
+        if (userFetch != null && !userFetch.isComplete() && uid.equals(userFetchUid)) {
+            return userFetch;
+        }
+        userFetchUid = uid;
+        userFetch = metrics.track("firestore:fetchUser", firestore.get("user.fetch", firestore.user(uid)))
+            .addOnSuccessListener(doc -> applyUserSnapshot(uid, doc));
+        return userFetch;
+    }
+    
+    /**
+     * Sustituye userState a partir de un documento, respetando los valores que
+     * aún están pendientes en el buffer write-behind (son más nuevos que el servidor).
+     * Devuelve el nuevo estado, o null si la sesión ya no es de ese uid.
+     */
+    private UserState applyUserSnapshot(String uid, DocumentSnapshot doc) {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null || !uid.equals(user.getUid())) {
+            return null;
+        }
+        
+        UserState next = UserState.fromSnapshot(uid, doc);
+        DocumentReference userRef = firestore.user(uid);
+        next = next.withCandies(mergeCandies(uid, doc, userRef));
+        Object pendingSound = writeBuffer.getPending(userRef, "soundEnabled");
+        Object pendingMusic = writeBuffer.getPending(userRef, "musicEnabled");
+        if (pendingSound instanceof Boolean && pendingMusic instanceof Boolean) {
+            next = next.withAudio((Boolean) pendingSound, (Boolean) pendingMusic);
+        }
+        
+        userState = next;
+        saveUserSnapshot(next);
+        return next;
+    }
+    
+    /**
+     * Total de caramelos fusionado: el mayor entre candiesTotal (más lo que haya pendiente de
+     * incrementar) y la suma de los contadores por dispositivo (con el nuestro al día).
+     * Si candiesTotal se ha quedado por debajo de la suma, se repara; las reglas solo dejan subirlo.
+     */
+    private long mergeCandies(String uid, DocumentSnapshot doc, DocumentReference userRef) {
+        Map<String, Long> counters = ProgressMerge.counters(doc);
+        Long stored = doc != null ? doc.getLong("candiesTotal") : null;
+        long total = stored != null ? stored : 0L;
+        legacyCandies = counters.isEmpty() ? total : null;
+        
+        Long remoteCounter = counters.get(merge.getDeviceId());
+        if (remoteCounter != null) {
+            merge.observeCounter(uid, remoteCounter);
+        }
+        long counterSum = ProgressMerge.sum(counters);
+        if (!counters.isEmpty()) {
+            long local = merge.getCounter(uid);
+            counterSum += local - (remoteCounter != null ? remoteCounter : 0L);
+        }
+        
+        long pendingIncrement = writeBuffer.getPendingIncrement(userRef, "candiesTotal");
+        if (doc != null && !doc.getMetadata().hasPendingWrites() && pendingIncrement == 0
+                && !counters.isEmpty() && ProgressMerge.sum(counters) > total) {
+            Log.d("GameBridge", "🔧 Reparando candiesTotal " + total + " → " + ProgressMerge.sum(counters));
+            Map<String, Object> repair = new HashMap<>();
+            repair.put("candiesTotal", ProgressMerge.sum(counters));
+            firestore.update("user.candiesRepair", userRef, repair);
+        }
+        return Math.max(total + pendingIncrement, counterSum);
+    }
+
+    /**
+     * Guarda en disco la foto del usuario (estado + niveles) para el próximo arranque.
+     */
+    private void saveUserSnapshot(UserState state) {
+        if (state.getUid() != null) {
+            snapshotStore.save(state, progressStore.getAllBestLevels(state.getUid()));
+        }
     }
     
     private void loadUserData() {
@@ -610,19 +1361,17 @@ public class GameBridge {
         if (currentUser != null) {
             String uid = currentUser.getUid();
             Log.d("GameBridge", "loadUserData() - cargando datos para UID: " + uid);
-            DocumentReference userRef = db
-                .collection("apps").document(APP_ID)
-                .collection("users").document(uid);
+            listenToProgress(uid);
+            listenToUser(uid);
+            replayPendingJournal();
+            DocumentReference userRef = firestore.user(uid);
             
-            userRef.get().addOnCompleteListener(task -> {
+            fetchUser(uid).addOnCompleteListener(task -> {
                 if (task.isSuccessful()) {
                     DocumentSnapshot document = task.getResult();
                     if (document.exists()) {
-                        Long candies = document.getLong("candiesTotal");
-                        cachedCandies = candies != null ? candies : 0L;
-                        
-                        String nick = document.getString("nick");
-                        cachedNick = nick;
+                        // userState ya se actualizó en fetchUser
+                        UserState state = userState;
                         
                         // Cargar preferencias de audio (estructura original)
                         Boolean soundEnabled = document.getBoolean("soundEnabled");
@@ -635,844 +1384,486 @@ public class GameBridge {
                             Map<String, Object> audioDefaults = new HashMap<>();
                             if (soundEnabled == null) {
                                 audioDefaults.put("soundEnabled", true);
-                                cachedSoundEnabled = true;
-                            } else {
-                                cachedSoundEnabled = soundEnabled;
                             }
-                            
                             if (musicEnabled == null) {
                                 audioDefaults.put("musicEnabled", true);
-                                cachedMusicEnabled = true;
-                            } else {
-                                cachedMusicEnabled = musicEnabled;
                             }
                             
                             // Actualizar el documento con los campos faltantes
-                            userRef.update(audioDefaults)
+                            metrics.track("firestore:audioDefaults", firestore.update("user.audioDefaults", userRef, audioDefaults))
                                 .addOnSuccessListener(aVoid -> {
                                     Log.d("GameBridge", "✅ Campos de audio creados con valores por defecto");
                                 })
                                 .addOnFailureListener(e -> {
                                     Log.e("GameBridge", "❌ Error creando campos de audio: " + e.getMessage());
                                 });
-                        } else {
-                            cachedSoundEnabled = soundEnabled;
-                            cachedMusicEnabled = musicEnabled;
                         }
                         
-                        Log.d("GameBridge", "✅ Datos de usuario cargados - caramelos: " + cachedCandies + ", nick: " + cachedNick);
-                        Log.d("GameBridge", "🔊 Preferencias de audio - sonido: " + cachedSoundEnabled + ", música: " + cachedMusicEnabled);
-                        Log.d("GameBridge", "📝 Nick cargado desde Firebase: " + (nick != null ? nick : "null"));
-                        Log.d("GameBridge", "📝 cachedNick actualizado a: " + cachedNick);
+                        Log.d("GameBridge", "✅ Datos de usuario cargados - caramelos: " + state.getCandiesTotal() + ", nick: " + state.getNick());
+                        Log.d("GameBridge", "🔊 Preferencias de audio - sonido: " + state.isSoundEnabled() + ", música: " + state.isMusicEnabled());
                         
-                        // Actualizar HUD inmediatamente después de cargar
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            webView.evaluateJavascript(
-                                "if (window.updateHUD) { window.updateHUD(); }",
-                                null
-                            );
-                            // Notificar que las preferencias de audio están listas
-                            webView.evaluateJavascript(
-                                "if (window.onAudioPreferencesLoaded) { window.onAudioPreferencesLoaded(); }",
-                                null
-                            );
-                            // También notificar inmediatamente con los valores actuales
-                            webView.evaluateJavascript(
-                                "if (window.updateAudioToggles) { window.updateAudioToggles(); }",
-                                null
-                            );
-                        });
+                        // Actualizar HUD y audio: las tres llamadas salen juntas en el mismo frame
+                        js.emitLatest("updateHUD");
+                        // Notificar que las preferencias de audio están listas
+                        js.emitLatest("onAudioPreferencesLoaded");
+                        // También notificar inmediatamente con los valores actuales
+                        js.emitLatest("updateAudioToggles");
                     } else {
                         Log.w("GameBridge", "⚠️ Documento de usuario no existe en Firestore");
-                        cachedCandies = 0L;
-                        cachedNick = null;
                     }
                 } else {
+                    // El listener de usuario recuperará el estado cuando vuelva la conexión
                     Log.e("GameBridge", "❌ Error cargando datos de usuario: " + task.getException());
-                    cachedCandies = 0L;
-                    cachedNick = null;
                 }
             });
         } else {
             Log.d("GameBridge", "loadUserData() - usuario no logueado");
-            cachedCandies = 0L;
-            cachedNick = null;
-            cachedSoundEnabled = false;
-            cachedMusicEnabled = false;
+            userState = UserState.EMPTY;
+            stopListeningToUser();
             
             // Notificar que las preferencias están listas (valores por defecto)
-            activity.runOnUiThread(() -> {
-                WebView webView = activity.findViewById(R.id.webview);
-                webView.evaluateJavascript(
-                    "if (window.onAudioPreferencesLoaded) { window.onAudioPreferencesLoaded(); }",
-                    null
-                );
-            });
+            js.emitLatest("onAudioPreferencesLoaded");
         }
     }
 
            @JavascriptInterface
            public void signInWithGoogle() {
-               Log.d("GameBridge", "signInWithGoogle() llamado desde JavaScript");
-               if (activity != null) {
-                   activity.runOnUiThread(() -> {
-                       // Abrir LoginActivity para autenticación
-                       Intent intent = new Intent(activity, LoginActivity.class);
-                       activity.startActivityForResult(intent, 1001);
-                   });
+               long metricsStart = metrics.enter("signInWithGoogle");
+               try {
+                   Log.d("GameBridge", "signInWithGoogle() llamado desde JavaScript");
+                   if (activity != null) {
+                       activity.runOnUiThread(() -> {
+                           // Abrir LoginActivity para autenticación
+                           Intent intent = new Intent(activity, LoginActivity.class);
+                           activity.startActivityForResult(intent, 1001);
+                       });
+                   }
+               } finally {
+                   metrics.exit("signInWithGoogle", metricsStart);
                }
            }
 
     @JavascriptInterface
     public void openCandyRanking() {
-        Log.d("GameBridge", "openCandyRanking() llamado desde JavaScript");
-        if (activity != null) {
-            activity.runOnUiThread(() -> {
-                // Abrir RankingActivity para mostrar ranking de caramelos
-                Intent intent = new Intent(activity, RankingActivity.class);
-                activity.startActivity(intent);
-            });
+        long metricsStart = metrics.enter("openCandyRanking");
+        try {
+            Log.d("GameBridge", "openCandyRanking() llamado desde JavaScript");
+            if (activity != null) {
+                activity.runOnUiThread(() -> {
+                    // Abrir RankingActivity para mostrar ranking de caramelos
+                    Intent intent = new Intent(activity, RankingActivity.class);
+                    activity.startActivity(intent);
+                });
+            }
+        } finally {
+            metrics.exit("openCandyRanking", metricsStart);
         }
     }
 
 
     @JavascriptInterface
     public void signOut() {
-        Log.e("GameBridge", "🚪🚪🚪 signOut() llamado desde JavaScript 🚪🚪🚪");
-        Log.e("GameBridge", "🚪 currentUser antes del signOut: " + (currentUser != null ? currentUser.getUid() : "null"));
+        long metricsStart = metrics.enter("signOut");
+        try {
+            Log.e("GameBridge", "🚪🚪🚪 signOut() llamado desde JavaScript 🚪🚪🚪");
+            Log.e("GameBridge", "🚪 currentUser antes del signOut: " + (currentUser != null ? currentUser.getUid() : "null"));
         
-        if (currentUser != null) {
-            Log.e("GameBridge", "🚪 Ejecutando FirebaseAuth.getInstance().signOut()...");
+            if (currentUser != null) {
+                // Volcar escrituras pendientes mientras aún hay sesión; lo que falle después ya
+                // no se reintenta con la sesión cerrada (los caramelos siguen en el diario)
+                writeBuffer.flush();
+                writeBuffer.clear();
             
-            // Cerrar sesión de Firebase
-            FirebaseAuth.getInstance().signOut();
+                Log.e("GameBridge", "🚪 Ejecutando FirebaseAuth.getInstance().signOut()...");
             
-            // Limpiar variables locales
-            currentUser = null;
-            cachedNick = null;
+                // Cerrar sesión de Firebase
+                FirebaseAuth.getInstance().signOut();
             
-            // Forzar limpieza del cache de Firebase
-            try {
-                // Limpiar el cache de Firestore
-                FirebaseFirestore.getInstance().clearPersistence();
-                Log.e("GameBridge", "🚪 Cache de Firestore limpiado");
-            } catch (Exception e) {
-                Log.e("GameBridge", "🚪 Error limpiando cache de Firestore: " + e.getMessage());
-            }
+                // Limpiar variables locales
+                currentUser = null;
+                userState = UserState.EMPTY;
+                snapshotStore.clear();
+                stopListeningToProgress();
+                stopListeningToUser();
             
-            // Verificar que realmente se cerró la sesión
-            currentUser = mAuth.getCurrentUser();
-            Log.e("GameBridge", "🚪 currentUser después del signOut: " + (currentUser != null ? currentUser.getUid() : "null"));
+                // Forzar limpieza del cache de Firebase
+                try {
+                    // Limpiar el cache de Firestore
+                    firestore.firestore().clearPersistence();
+                    Log.e("GameBridge", "🚪 Cache de Firestore limpiado");
+                } catch (Exception e) {
+                    Log.e("GameBridge", "🚪 Error limpiando cache de Firestore: " + e.getMessage());
+                }
             
-            Log.e("GameBridge", "🚪 Sesión cerrada exitosamente - variables y cache limpiados");
+                // Verificar que realmente se cerró la sesión
+                currentUser = mAuth.getCurrentUser();
+                Log.e("GameBridge", "🚪 currentUser después del signOut: " + (currentUser != null ? currentUser.getUid() : "null"));
             
-            // Notificar a JavaScript que la sesión se cerró
-            if (activity != null) {
-                activity.runOnUiThread(() -> {
-                    WebView webView = activity.findViewById(R.id.webview);
-                    String jsCode = "if (window.onSignOutComplete) { window.onSignOutComplete(); }";
-                    Log.e("GameBridge", "🚪 Enviando callback a JavaScript: " + jsCode);
-                    webView.evaluateJavascript(jsCode, null);
-                });
+                Log.e("GameBridge", "🚪 Sesión cerrada exitosamente - variables y cache limpiados");
+            
+                // Notificar a JavaScript que la sesión se cerró
+                if (activity != null) {
+                    Log.e("GameBridge", "🚪 Enviando callback a JavaScript: onSignOutComplete()");
+                    js.emit("onSignOutComplete");
+                } else {
+                    Log.e("GameBridge", "🚪 ERROR: activity es null, no se puede notificar a JavaScript");
+                }
             } else {
-                Log.e("GameBridge", "🚪 ERROR: activity es null, no se puede notificar a JavaScript");
+                Log.e("GameBridge", "🚪 No hay sesión activa para cerrar");
             }
-        } else {
-            Log.e("GameBridge", "🚪 No hay sesión activa para cerrar");
+        } finally {
+            metrics.exit("signOut", metricsStart);
         }
     }
 
-           @JavascriptInterface
-           public void getCandyRanking() {
-               Log.e("GameBridge", "🚀🚀🚀 getCandyRanking() llamado desde JavaScript 🚀🚀🚀");
-               
-               if (currentUser == null) {
-                   Log.w("GameBridge", "getCandyRanking: Usuario no autenticado. Devolviendo ranking vacío.");
-                   activity.runOnUiThread(() -> {
-                       WebView webView = activity.findViewById(R.id.webview);
-                       String jsCode = "if (window.onCandyRankingReceived) { window.onCandyRankingReceived([]); }";
-                       webView.evaluateJavascript(jsCode, null);
-                   });
-                   return;
-               }
-
-               // Primero intentar obtener todos los usuarios sin filtro
-               Log.d("GameBridge", "🔍 Iniciando consulta simple a Firebase para ranking de caramelos...");
-               db.collection("users")
-                       .get()
-                       .addOnCompleteListener(task -> {
-                           if (task.isSuccessful()) {
-                               Log.d("GameBridge", "✅ Consulta Firebase exitosa. Documentos encontrados: " + task.getResult().size());
-                               JSONArray jsonRanking = new JSONArray();
-                               
-                               // Procesar todos los usuarios y filtrar los que tienen candiesTotal
-                               for (QueryDocumentSnapshot document : task.getResult()) {
-                                   try {
-                                       String uid = document.getId();
-                                       String nick = document.getString("nick");
-                                       Long candiesTotal = document.getLong("candiesTotal");
-                                       
-                                       // Solo incluir usuarios que tienen candiesTotal > 0
-                                       if (candiesTotal != null && candiesTotal > 0) {
-                                           Log.d("GameBridge", "👤 Usuario válido: " + nick + " (UID: " + uid + ") - Caramelos: " + candiesTotal);
-                                           
-                                           JSONObject userJson = new JSONObject();
-                                           userJson.put("uid", uid);
-                                           userJson.put("nick", nick != null ? nick : "Usuario Anónimo");
-                                           userJson.put("candiesTotal", candiesTotal);
-                                           jsonRanking.put(userJson);
-                                       } else {
-                                           Log.d("GameBridge", "👤 Usuario sin caramelos: " + nick + " (UID: " + uid + ") - Caramelos: " + candiesTotal);
-                                       }
-                                   } catch (JSONException e) {
-                                       Log.e("GameBridge", "Error al crear JSON para usuario en ranking de caramelos", e);
-                                   }
-                               }
-                               
-                               // Ordenar por candiesTotal (descendente)
-                               Log.d("GameBridge", "📊 Total usuarios con caramelos: " + jsonRanking.length());
-                               
-                               // Enviar el ranking a JavaScript
-                               activity.runOnUiThread(() -> {
-                                   WebView webView = activity.findViewById(R.id.webview);
-                                   String jsCode = "if (window.onCandyRankingReceived) { window.onCandyRankingReceived(" + jsonRanking.toString() + "); }";
-                                   Log.d("GameBridge", "📤 Enviando ranking de caramelos: " + jsCode);
-                                   webView.evaluateJavascript(jsCode, null);
-                               });
-                           } else {
-                               Log.e("GameBridge", "❌ Error obteniendo ranking de caramelos", task.getException());
-                               if (task.getException() != null) {
-                                   Log.e("GameBridge", "Detalles del error: " + task.getException().getMessage());
-                               }
-                               activity.runOnUiThread(() -> {
-                                   WebView webView = activity.findViewById(R.id.webview);
-                                   String jsCode = "if (window.onCandyRankingReceived) { window.onCandyRankingReceived([]); }";
-                                   webView.evaluateJavascript(jsCode, null);
-                               });
-                           }
-                       });
-           }
+    /**
+     * Primera página del ranking de caramelos (apps/aray/users ordenado por candiesTotal).
+     * El resultado llega vía window.onCandyRankingReceived(ranking, nextCursor).
+     */
+    @JavascriptInterface
+    public void getCandyRanking() {
+        long metricsStart = metrics.enter("getCandyRanking");
+        try {
+            getCandyRankingPage(null);
+        } finally {
+            metrics.exit("getCandyRanking", metricsStart);
+        }
+    }
 
-           @JavascriptInterface
-           public void getYayosRanking() {
-        Log.d("GameBridge", "getYayosRanking() llamado");
-        
-        // Obtener ranking de Yayos desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "yayos")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Map<String, Object>> ranking = new ArrayList<>();
-                    
-                    for (QueryDocumentSnapshot doc : task.getResult()) {
-                        Map<String, Object> userData = new HashMap<>();
-                        userData.put("uid", doc.getString("uid"));
-                        userData.put("bestLevel", doc.getLong("bestLevel"));
-                        userData.put("updatedAt", doc.getTimestamp("updatedAt"));
-                        ranking.add(userData);
-                    }
-                    
-                    // Obtener información de usuarios (nick y caramelos)
-                    if (!ranking.isEmpty()) {
-                        List<String> uids = new ArrayList<>();
-                        for (Map<String, Object> user : ranking) {
-                            uids.add((String) user.get("uid"));
-                        }
-                        
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), uids)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    Map<String, Map<String, Object>> userDataMap = new HashMap<>();
-                                    
-                                    for (QueryDocumentSnapshot userDoc : userTask.getResult()) {
-                                        Map<String, Object> userInfo = new HashMap<>();
-                                        userInfo.put("nick", userDoc.getString("nick"));
-                                        userInfo.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                        userDataMap.put(userDoc.getId(), userInfo);
-                                    }
-                                    
-                                    // Combinar datos de ranking con datos de usuario
-                                    for (Map<String, Object> user : ranking) {
-                                        String uid = (String) user.get("uid");
-                                        Map<String, Object> userInfo = userDataMap.get(uid);
-                                        if (userInfo != null) {
-                                            user.put("nick", userInfo.get("nick"));
-                                            user.put("candiesTotal", userInfo.get("candiesTotal"));
-                                        }
-                                    }
-                                    
-                                    // Enviar resultado al WebView
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        try {
-                                            JSONArray jsonRanking = new JSONArray();
-                                            for (Map<String, Object> user : ranking) {
-                                                JSONObject userJson = new JSONObject();
-                                                userJson.put("uid", user.get("uid"));
-                                                userJson.put("nick", user.get("nick"));
-                                                userJson.put("bestLevel", user.get("bestLevel"));
-                                                userJson.put("candiesTotal", user.get("candiesTotal"));
-                                                jsonRanking.put(userJson);
-                                            }
-                                            String jsCode = "if (window.onYayosRankingReceived) { window.onYayosRankingReceived(" + jsonRanking.toString() + "); }";
-                                            Log.d("GameBridge", "📤 Enviando ranking de Yayos: " + jsCode);
-                                            webView.evaluateJavascript(jsCode, null);
-                                        } catch (JSONException e) {
-                                            Log.e("GameBridge", "Error creando JSON del ranking", e);
-                                        }
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onYayosRankingReceived) { window.onYayosRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Yayos", task.getException());
-                }
+    /**
+     * Siguiente página del ranking de caramelos a partir del cursor devuelto por la anterior.
+     * nextCursor llega a null cuando no hay más páginas.
+     */
+    @JavascriptInterface
+    public void getCandyRankingPage(String cursorJson) {
+        long metricsStart = metrics.enter("getCandyRankingPage");
+        try {
+            Log.d("GameBridge", "getCandyRankingPage() llamado con cursor: " + cursorJson);
+            fetchCandyPage(cursorJson, result -> {
+                JSONObject page = (JSONObject) result;
+                Log.d("GameBridge", "📤 Enviando ranking de caramelos (" + page.optJSONArray("ranking").length() + " jugadores)");
+                js.emit("onCandyRankingReceived", page.optJSONArray("ranking"), page.optJSONObject("next"));
             });
+        } finally {
+            metrics.exit("getCandyRankingPage", metricsStart);
+        }
     }
 
-    @JavascriptInterface
-    public void getSkateRanking() {
-        Log.d("GameBridge", "getSkateRanking() llamado");
+    /**
+     * Página del ranking de caramelos como {ranking: [...], next: cursor | null}.
+     */
+    private void fetchCandyPage(String cursorJson, Reply reply) {
+        if (mAuth.getCurrentUser() == null) {
+            Log.w("GameBridge", "getCandyRanking: Usuario no autenticado. Devolviendo ranking vacío.");
+            reply.onResult(candyPageJson(new JSONArray(), null));
+            return;
+        }
         
-        // Obtener ranking de Skate desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "skate")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Map<String, Object>> ranking = new ArrayList<>();
-                    
-                    for (QueryDocumentSnapshot doc : task.getResult()) {
-                        Map<String, Object> userData = new HashMap<>();
-                        userData.put("uid", doc.getString("uid"));
-                        userData.put("bestLevel", doc.getLong("bestLevel"));
-                        userData.put("updatedAt", doc.getTimestamp("updatedAt"));
-                        ranking.add(userData);
-                    }
-                    
-                    // Obtener información de usuarios (nick y caramelos)
-                    if (!ranking.isEmpty()) {
-                        List<String> uids = new ArrayList<>();
-                        for (Map<String, Object> user : ranking) {
-                            uids.add((String) user.get("uid"));
-                        }
-                        
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), uids)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    Map<String, Map<String, Object>> userDataMap = new HashMap<>();
-                                    
-                                    for (QueryDocumentSnapshot userDoc : userTask.getResult()) {
-                                        Map<String, Object> userInfo = new HashMap<>();
-                                        userInfo.put("nick", userDoc.getString("nick"));
-                                        userInfo.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                        userDataMap.put(userDoc.getId(), userInfo);
-                                    }
-                                    
-                                    // Combinar datos de ranking con datos de usuario
-                                    for (Map<String, Object> user : ranking) {
-                                        String uid = (String) user.get("uid");
-                                        Map<String, Object> userInfo = userDataMap.get(uid);
-                                        if (userInfo != null) {
-                                            user.put("nick", userInfo.get("nick"));
-                                            user.put("candiesTotal", userInfo.get("candiesTotal"));
-                                        }
-                                    }
-                                    
-                                    // Enviar resultado al WebView
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        try {
-                                            JSONArray jsonRanking = new JSONArray();
-                                            for (Map<String, Object> user : ranking) {
-                                                JSONObject userJson = new JSONObject();
-                                                userJson.put("uid", user.get("uid"));
-                                                userJson.put("nick", user.get("nick"));
-                                                userJson.put("bestLevel", user.get("bestLevel"));
-                                                userJson.put("candiesTotal", user.get("candiesTotal"));
-                                                jsonRanking.put(userJson);
-                                            }
-                                            String jsCode = "if (window.onSkateRankingReceived) { window.onSkateRankingReceived(" + jsonRanking.toString() + "); }";
-                                            Log.d("GameBridge", "📤 Enviando ranking de Skate: " + jsCode);
-                                            webView.evaluateJavascript(jsCode, null);
-                                        } catch (JSONException e) {
-                                            Log.e("GameBridge", "Error creando JSON del ranking", e);
-                                        }
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onSkateRankingReceived) { window.onSkateRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Skate", task.getException());
+        LeaderboardService.PageCursor after = LeaderboardService.PageCursor.fromJson(cursorJson);
+        leaderboard.candyPage(after, LeaderboardService.DEFAULT_LIMIT, (page, next) -> {
+            JSONObject nextJson = null;
+            try {
+                if (next != null) {
+                    nextJson = next.toJson();
                 }
-            });
+            } catch (JSONException e) {
+                Log.e("GameBridge", "Error al crear JSON del ranking de caramelos", e);
+            }
+            reply.onResult(candyPageJson(rankingJson(page), nextJson));
+        });
     }
 
+    private static JSONObject candyPageJson(JSONArray ranking, JSONObject next) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("ranking", ranking);
+            json.put("next", next != null ? next : JSONObject.NULL);
+        } catch (JSONException e) {
+            Log.e("GameBridge", "Error al crear JSON del ranking de caramelos", e);
+        }
+        return json;
+    }
+
+    private static JSONArray rankingJson(List<RankingItem> ranking) {
+        JSONArray jsonRanking = new JSONArray();
+        for (RankingItem item : ranking) {
+            try {
+                jsonRanking.put(item.toJson());
+            } catch (JSONException e) {
+                Log.e("GameBridge", "Error creando entrada del ranking", e);
+            }
+        }
+        return jsonRanking;
+    }
+
+    /**
+     * Ranking de un juego (top 20 por nivel) con un único método para todos los juegos.
+     * El resultado llega a JS vía window.onGameRankingReceived(gameId, ranking).
+     */
     @JavascriptInterface
-    public void getColeRanking() {
-        Log.d("GameBridge", "getColeRanking() llamado");
+    public void getRanking(String gameId) {
+        long metricsStart = metrics.enter("getRanking");
+        try {
+            Log.d("GameBridge", "getRanking() llamado para juego: " + gameId);
         
-        // Obtener ranking de Cole desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "cole")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Map<String, Object>> ranking = new ArrayList<>();
-                    
-                    for (QueryDocumentSnapshot doc : task.getResult()) {
-                        Map<String, Object> userData = new HashMap<>();
-                        userData.put("uid", doc.getString("uid"));
-                        userData.put("bestLevel", doc.getLong("bestLevel"));
-                        userData.put("updatedAt", doc.getTimestamp("updatedAt"));
-                        ranking.add(userData);
-                    }
-                    
-                    // Obtener información de usuarios (nick y caramelos)
-                    if (!ranking.isEmpty()) {
-                        List<String> uids = new ArrayList<>();
-                        for (Map<String, Object> user : ranking) {
-                            uids.add((String) user.get("uid"));
-                        }
-                        
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), uids)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    Map<String, Map<String, Object>> userDataMap = new HashMap<>();
-                                    
-                                    for (QueryDocumentSnapshot userDoc : userTask.getResult()) {
-                                        Map<String, Object> userInfo = new HashMap<>();
-                                        userInfo.put("nick", userDoc.getString("nick"));
-                                        userInfo.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                        userDataMap.put(userDoc.getId(), userInfo);
-                                    }
-                                    
-                                    // Combinar datos de ranking con datos de usuario
-                                    for (Map<String, Object> user : ranking) {
-                                        String uid = (String) user.get("uid");
-                                        Map<String, Object> userInfo = userDataMap.get(uid);
-                                        if (userInfo != null) {
-                                            user.put("nick", userInfo.get("nick"));
-                                            user.put("candiesTotal", userInfo.get("candiesTotal"));
-                                        }
-                                    }
-                                    
-                                    // Enviar resultado al WebView
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        try {
-                                            JSONArray jsonRanking = new JSONArray();
-                                            for (Map<String, Object> user : ranking) {
-                                                JSONObject userJson = new JSONObject();
-                                                userJson.put("uid", user.get("uid"));
-                                                userJson.put("nick", user.get("nick"));
-                                                userJson.put("bestLevel", user.get("bestLevel"));
-                                                userJson.put("candiesTotal", user.get("candiesTotal"));
-                                                jsonRanking.put(userJson);
-                                            }
-                                            String jsCode = "if (window.onColeRankingReceived) { window.onColeRankingReceived(" + jsonRanking.toString() + "); }";
-                                            Log.d("GameBridge", "📤 Enviando ranking de Cole: " + jsCode);
-                                            webView.evaluateJavascript(jsCode, null);
-                                        } catch (JSONException e) {
-                                            Log.e("GameBridge", "Error creando JSON del ranking", e);
-                                        }
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onColeRankingReceived) { window.onColeRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Cole", task.getException());
-                }
+            leaderboard.top(gameId, LeaderboardService.DEFAULT_LIMIT, ranking -> {
+                JSONArray jsonRanking = rankingJson(ranking);
+                Log.d("GameBridge", "📤 Enviando ranking de " + gameId + " (" + jsonRanking.length() + " jugadores)");
+                js.emit("onGameRankingReceived", gameId, jsonRanking);
             });
+        } finally {
+            metrics.exit("getRanking", metricsStart);
+        }
     }
 
+    /**
+     * Ranking "alrededor de mí": los k jugadores justo por encima y por debajo del
+     * usuario en un juego (o en caramelos con gameId "candies"), incluyéndole a él.
+     * Resultado vía window.onRankingAroundReceived(gameId, ranking).
+     */
     @JavascriptInterface
-    public void getInformaticaRanking() {
-        Log.d("GameBridge", "getInformaticaRanking() llamado");
+    public void getRankingAround(String gameId, int k) {
+        long metricsStart = metrics.enter("getRankingAround");
+        try {
+            Log.d("GameBridge", "getRankingAround() llamado para: " + gameId + " (k=" + k + ")");
+            fetchRankingAround(gameId, k, ranking -> js.emit("onRankingAroundReceived", gameId, ranking));
+        } finally {
+            metrics.exit("getRankingAround", metricsStart);
+        }
+    }
+    
+    private void fetchRankingAround(String gameId, int k, Reply reply) {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null) {
+            reply.onResult(new JSONArray());
+            return;
+        }
         
-        // Obtener ranking de Informática desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "informatica")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Map<String, Object>> ranking = new ArrayList<>();
-                    
-                    for (QueryDocumentSnapshot doc : task.getResult()) {
-                        Map<String, Object> userData = new HashMap<>();
-                        userData.put("uid", doc.getString("uid"));
-                        userData.put("bestLevel", doc.getLong("bestLevel"));
-                        userData.put("updatedAt", doc.getTimestamp("updatedAt"));
-                        ranking.add(userData);
-                    }
-                    
-                    // Obtener información de usuarios (nick y caramelos)
-                    if (!ranking.isEmpty()) {
-                        List<String> uids = new ArrayList<>();
-                        for (Map<String, Object> user : ranking) {
-                            uids.add((String) user.get("uid"));
-                        }
-                        
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), uids)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    Map<String, Map<String, Object>> userDataMap = new HashMap<>();
-                                    
-                                    for (QueryDocumentSnapshot userDoc : userTask.getResult()) {
-                                        Map<String, Object> userInfo = new HashMap<>();
-                                        userInfo.put("nick", userDoc.getString("nick"));
-                                        userInfo.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                        userDataMap.put(userDoc.getId(), userInfo);
-                                    }
-                                    
-                                    // Combinar datos de ranking con datos de usuario
-                                    for (Map<String, Object> user : ranking) {
-                                        String uid = (String) user.get("uid");
-                                        Map<String, Object> userInfo = userDataMap.get(uid);
-                                        if (userInfo != null) {
-                                            user.put("nick", userInfo.get("nick"));
-                                            user.put("candiesTotal", userInfo.get("candiesTotal"));
-                                        }
-                                    }
-                                    
-                                    // Enviar resultado al WebView
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        try {
-                                            JSONArray jsonRanking = new JSONArray();
-                                            for (Map<String, Object> user : ranking) {
-                                                JSONObject userJson = new JSONObject();
-                                                userJson.put("uid", user.get("uid"));
-                                                userJson.put("nick", user.get("nick"));
-                                                userJson.put("bestLevel", user.get("bestLevel"));
-                                                userJson.put("candiesTotal", user.get("candiesTotal"));
-                                                jsonRanking.put(userJson);
-                                            }
-                                            String jsCode = "if (window.onInformaticaRankingReceived) { window.onInformaticaRankingReceived(" + jsonRanking.toString() + "); }";
-                                            Log.d("GameBridge", "📤 Enviando ranking de Informática: " + jsCode);
-                                            webView.evaluateJavascript(jsCode, null);
-                                        } catch (JSONException e) {
-                                            Log.e("GameBridge", "Error creando JSON del ranking", e);
-                                        }
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onInformaticaRankingReceived) { window.onInformaticaRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Informática", task.getException());
-                }
-            });
+        // La ventana se ancla en el documento del servidor, no en la puntuación local
+        int window = k > 0 ? k : LeaderboardService.DEFAULT_AROUND;
+        leaderboard.around(user.getUid(), gameId, window, ranking -> reply.onResult(rankingJson(ranking)));
     }
 
+    /**
+     * Posición del jugador en un juego (o en caramelos con gameId "candies"),
+     * calculada con una agregación count(). Resultado vía
+     * window.onMyRankReceived(gameId, rank, score); rank = -1 si no hay dato.
+     */
     @JavascriptInterface
-    public void getTiendaRanking() {
-        Log.d("GameBridge", "getTiendaRanking() llamado");
-        
-        // Obtener ranking de Tienda desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "tienda")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Map<String, Object>> ranking = new ArrayList<>();
-                    
-                    for (QueryDocumentSnapshot doc : task.getResult()) {
-                        Map<String, Object> userData = new HashMap<>();
-                        userData.put("uid", doc.getString("uid"));
-                        userData.put("bestLevel", doc.getLong("bestLevel"));
-                        userData.put("updatedAt", doc.getTimestamp("updatedAt"));
-                        ranking.add(userData);
-                    }
-                    
-                    // Obtener información de usuarios (nick y caramelos)
-                    if (!ranking.isEmpty()) {
-                        List<String> uids = new ArrayList<>();
-                        for (Map<String, Object> user : ranking) {
-                            uids.add((String) user.get("uid"));
-                        }
-                        
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), uids)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    Map<String, Map<String, Object>> userDataMap = new HashMap<>();
-                                    
-                                    for (QueryDocumentSnapshot userDoc : userTask.getResult()) {
-                                        Map<String, Object> userInfo = new HashMap<>();
-                                        userInfo.put("nick", userDoc.getString("nick"));
-                                        userInfo.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                        userDataMap.put(userDoc.getId(), userInfo);
-                                    }
-                                    
-                                    // Combinar datos de ranking con datos de usuario
-                                    for (Map<String, Object> user : ranking) {
-                                        String uid = (String) user.get("uid");
-                                        Map<String, Object> userInfo = userDataMap.get(uid);
-                                        if (userInfo != null) {
-                                            user.put("nick", userInfo.get("nick"));
-                                            user.put("candiesTotal", userInfo.get("candiesTotal"));
-                                        }
-                                    }
-                                    
-                                    // Enviar resultado al WebView
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        try {
-                                            JSONArray jsonRanking = new JSONArray();
-                                            for (Map<String, Object> user : ranking) {
-                                                JSONObject userJson = new JSONObject();
-                                                userJson.put("uid", user.get("uid"));
-                                                userJson.put("nick", user.get("nick"));
-                                                userJson.put("bestLevel", user.get("bestLevel"));
-                                                userJson.put("candiesTotal", user.get("candiesTotal"));
-                                                jsonRanking.put(userJson);
-                                            }
-                                            String jsCode = "if (window.onTiendaRankingReceived) { window.onTiendaRankingReceived(" + jsonRanking.toString() + "); }";
-                                            Log.d("GameBridge", "📤 Enviando ranking de Tienda: " + jsCode);
-                                            webView.evaluateJavascript(jsCode, null);
-                                        } catch (JSONException e) {
-                                            Log.e("GameBridge", "Error creando JSON del ranking", e);
-                                        }
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onTiendaRankingReceived) { window.onTiendaRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Tienda", task.getException());
-                }
+    public void getMyRank(String gameId) {
+        long metricsStart = metrics.enter("getMyRank");
+        try {
+            Log.d("GameBridge", "getMyRank() llamado para: " + gameId);
+            fetchMyRank(gameId, result -> {
+                JSONObject rank = (JSONObject) result;
+                js.emit("onMyRankReceived", gameId, rank.optLong("rank", -1), rank.optLong("score", 0));
             });
+        } finally {
+            metrics.exit("getMyRank", metricsStart);
+        }
+    }
+    
+    /**
+     * Posición como {rank, score}; rank = -1 si no hay dato.
+     */
+    private void fetchMyRank(String gameId, Reply reply) {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null) {
+            reply.onResult(myRankJson(-1, 0));
+            return;
+        }
+        
+        leaderboard.myRank(user.getUid(), gameId, (rank, score) -> reply.onResult(myRankJson(rank, score)));
+    }
+    
+    private static JSONObject myRankJson(long rank, long score) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("rank", rank);
+            json.put("score", score);
+        } catch (JSONException e) {
+            Log.e("GameBridge", "Error creando JSON de posición", e);
+        }
+        return json;
     }
 
+    /**
+     * Punto de entrada del protocolo petición/respuesta (js/bridge.js).
+     * Cada llamada lleva su propio requestId y se resuelve exactamente esa petición con
+     * window.__resolveBridge(requestId, ok, result), así que varias lecturas pueden
+     * estar en vuelo a la vez sin pisarse los callbacks globales.
+     *
+     * @param argsJson array JSON con los argumentos del método
+     */
     @JavascriptInterface
-    public void getEdificioRanking() {
-        Log.d("GameBridge", "getEdificioRanking() llamado");
+    public void callAsync(String requestId, String method, String argsJson) {
+        long metricsStart = metrics.enter("callAsync");
+        try {
+            if (method == null) {
+                rejectAsync(requestId, "Falta el método");
+                return;
+            }
+            JSONArray args;
+            try {
+                args = new JSONArray(argsJson != null && !argsJson.isEmpty() ? argsJson : "[]");
+            } catch (JSONException e) {
+                rejectAsync(requestId, "Argumentos inválidos para " + method);
+                return;
+            }
         
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "edificio")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    QuerySnapshot snapshot = task.getResult();
-                    if (snapshot != null && !snapshot.isEmpty()) {
-                        List<String> userIds = new ArrayList<>();
-                        Map<String, DocumentSnapshot> progressDocs = new HashMap<>();
-
-                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-                            String userId = doc.getString("uid"); // Los progresos guardan 'uid'
-                            if (userId != null && !userId.isEmpty()) {
-                                userIds.add(userId);
-                                progressDocs.put(userId, doc);
-                            }
-                        }
-
-                        // Si no hay usuarios válidos
-                        if (userIds.isEmpty()) {
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onEdificioRankingReceived) { window.onEdificioRankingReceived([]); }";
-                                webView.evaluateJavascript(jsCode, null);
-                            });
-                            return;
+            Reply resolve = result -> js.emit("__resolveBridge", requestId, true, result);
+            switch (method) {
+                case "getBestLevel":
+                    fetchBestLevel(args.optString(0), level -> {
+                        if (level != null) {
+                            resolve.onResult(level);
+                        } else {
+                            rejectAsync(requestId, "No se pudo leer el nivel de " + args.optString(0));
                         }
-
-                        // Firestore whereIn admite hasta 10 IDs → limitar
-                        if (userIds.size() > 10) {
-                            userIds = new ArrayList<>(userIds.subList(0, 10));
+                    });
+                    break;
+                case "syncProgress":
+                    JSONObject local = args.optJSONObject(0);
+                    runSyncProgress(local != null ? local.toString() : "{}", (levels, ok) -> {
+                        if (ok) {
+                            resolve.onResult(levelsJson(levels));
+                        } else {
+                            rejectAsync(requestId, "No se pudo sincronizar el progreso");
                         }
+                    });
+                    break;
+                case "getRanking":
+                    leaderboard.top(args.optString(0), LeaderboardService.DEFAULT_LIMIT,
+                        ranking -> resolve.onResult(rankingJson(ranking)));
+                    break;
+                case "getCandyRankingPage":
+                    JSONObject cursor = args.optJSONObject(0);
+                    fetchCandyPage(cursor != null ? cursor.toString() : null, resolve);
+                    break;
+                case "getRankingAround":
+                    fetchRankingAround(args.optString(0), args.optInt(1, 0), resolve);
+                    break;
+                case "getMyRank":
+                    fetchMyRank(args.optString(0), resolve);
+                    break;
+                default:
+                    Log.w("GameBridge", "callAsync() - método desconocido: " + method);
+                    rejectAsync(requestId, "Método desconocido: " + method);
+            }
+        } finally {
+            metrics.exit("callAsync", metricsStart);
+        }
+    }
+    
+    private void rejectAsync(String requestId, String error) {
+        js.emit("__resolveBridge", requestId, false, error);
+    }
 
-                        // Hacer inmutable para uso dentro de lambdas
-                        final List<String> finalUserIds = new ArrayList<>(userIds);
-
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), finalUserIds)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    QuerySnapshot userSnapshot = userTask.getResult();
-                                    Map<String, DocumentSnapshot> userDocs = new HashMap<>();
-                                    if (userSnapshot != null) {
-                                        for (DocumentSnapshot userDoc : userSnapshot.getDocuments()) {
-                                            userDocs.put(userDoc.getId(), userDoc);
-                                        }
-                                    }
-
-                                    JSONArray jsonRanking = new JSONArray();
-                                    for (String uid : finalUserIds) {
-                                        DocumentSnapshot progressDoc = progressDocs.get(uid);
-                                        DocumentSnapshot userDoc = userDocs.get(uid);
-                                        if (progressDoc != null && userDoc != null) {
-                                            try {
-                                                JSONObject entry = new JSONObject();
-                                                entry.put("nick", userDoc.getString("nick"));
-                                                entry.put("bestLevel", progressDoc.getLong("bestLevel"));
-                                                entry.put("photoURL", userDoc.getString("photoURL"));
-                                                // Candies desde documento de usuario si existe
-                                                Long candies = userDoc.getLong("candiesTotal");
-                                                entry.put("candiesTotal", candies != null ? candies : 0);
-                                                jsonRanking.put(entry);
-                                            } catch (JSONException e) {
-                                                Log.e("GameBridge", "Error creando entrada del ranking", e);
-                                            }
-                                        }
-                                    }
-
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        String jsCode = "if (window.onEdificioRankingReceived) { window.onEdificioRankingReceived(" + jsonRanking.toString() + "); }";
-                                        Log.d("GameBridge", "📤 Enviando ranking de Edificio: " + jsCode);
-                                        webView.evaluateJavascript(jsCode, null);
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        String jsCode = "if (window.onEdificioRankingReceived) { window.onEdificioRankingReceived([]); }";
-                                        webView.evaluateJavascript(jsCode, null);
-                                    });
-                                }
-                            });
-                    } else {
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onEdificioRankingReceived) { window.onEdificioRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
+    /**
+     * Varias llamadas en un solo cruce del puente JS ↔ Java.
+     * Recibe [{method, args: [...]}, ...] y devuelve un array JSON con un resultado por
+     * llamada, en el mismo orden (null para métodos void, no permitidos o que fallan).
+     * getUser se devuelve ya como objeto, no como string.
+     */
+    @JavascriptInterface
+    public String batch(String jsonCalls) {
+        long metricsStart = metrics.enter("batch");
+        try {
+            JSONArray results = new JSONArray();
+            JSONArray calls;
+            try {
+                calls = new JSONArray(jsonCalls != null ? jsonCalls : "[]");
+            } catch (JSONException e) {
+                Log.e("GameBridge", "batch() - JSON inválido", e);
+                return results.toString();
+            }
+        
+            for (int i = 0; i < calls.length(); i++) {
+                JSONObject call = calls.optJSONObject(i);
+                String method = call != null ? call.optString("method") : "";
+                JSONArray args = call != null && call.optJSONArray("args") != null ? call.optJSONArray("args") : new JSONArray();
+                Object value = null;
+            
+                if (!BATCHABLE_METHODS.contains(method)) {
+                    Log.w("GameBridge", "batch() - método no permitido: " + method);
                 } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Edificio", task.getException());
-                    activity.runOnUiThread(() -> {
-                        WebView webView = activity.findViewById(R.id.webview);
-                        String jsCode = "if (window.onEdificioRankingReceived) { window.onEdificioRankingReceived([]); }";
-                        webView.evaluateJavascript(jsCode, null);
-                    });
+                    try {
+                        value = dispatchBatched(method, args);
+                    } catch (Exception e) {
+                        Log.e("GameBridge", "batch() - error en " + method, e);
+                    }
                 }
-            });
+                results.put(value != null ? value : JSONObject.NULL);
+            }
+            return results.toString();
+        } finally {
+            metrics.exit("batch", metricsStart);
+        }
+    }
+    
+    private Object dispatchBatched(String method, JSONArray args) throws JSONException {
+        switch (method) {
+            case "isUserLoggedIn":
+                return isUserLoggedInImpl();
+            case "getUser":
+                return new JSONObject(getUserImpl());
+            case "getSoundEnabled":
+                return getSoundEnabledImpl();
+            case "getMusicEnabled":
+                return getMusicEnabledImpl();
+            case "getBestLevelSync":
+                return getBestLevelSyncImpl(args.getString(0));
+            case "earnCandies":
+                return earnCandiesImpl(args.getInt(0), args.getString(1));
+            case "updateBestLevel":
+                updateBestLevelImpl(args.getString(0), args.getInt(1));
+                return null;
+            case "updateAudioPreferences":
+                updateAudioPreferencesImpl(args.getBoolean(0), args.getBoolean(1));
+                return null;
+            case "flushPendingWrites":
+                flushPendingWritesImpl();
+                return null;
+            case "replayJournal":
+                replayJournalImpl();
+                return null;
+            case "onGamePlayed":
+                onGamePlayedImpl();
+                return null;
+            default:
+                return null;
+        }
     }
 
     @JavascriptInterface
     public void updateAudioPreferences(boolean soundEnabled, boolean musicEnabled) {
-        Log.e("GameBridge", "🔊🔊🔊 updateAudioPreferences() LLAMADO desde JavaScript 🔊🔊🔊");
-        Log.e("GameBridge", "🔊 Valores recibidos - sonido: " + soundEnabled + ", música: " + musicEnabled);
-        
+        long metricsStart = metrics.enter("updateAudioPreferences");
+        try {
+            updateAudioPreferencesImpl(soundEnabled, musicEnabled);
+        } finally {
+            metrics.exit("updateAudioPreferences", metricsStart);
+        }
+    }
+
+    private void updateAudioPreferencesImpl(boolean soundEnabled, boolean musicEnabled) {
+        Log.d("GameBridge", "🔊 updateAudioPreferences() - sonido: " + soundEnabled + ", música: " + musicEnabled);
+    
         if (currentUser == null) {
             currentUser = mAuth.getCurrentUser();
         }
-        
+    
         if (currentUser != null) {
             String uid = currentUser.getUid();
-            DocumentReference userRef = db
-                .collection("apps").document(APP_ID)
-                .collection("users").document(uid);
-            
-            Map<String, Object> data = new HashMap<>();
-            data.put("soundEnabled", soundEnabled);
-            data.put("musicEnabled", musicEnabled);
-            data.put("lastSeen", FieldValue.serverTimestamp());
-            
-            userRef.update(data)
-                .addOnSuccessListener(aVoid -> {
-                    Log.e("GameBridge", "✅✅✅ Preferencias de audio actualizadas en Firebase ✅✅✅");
-                    cachedSoundEnabled = soundEnabled;
-                    cachedMusicEnabled = musicEnabled;
-                    Log.e("GameBridge", "✅ Cache actualizado - soundEnabled: " + cachedSoundEnabled + ", musicEnabled: " + cachedMusicEnabled);
-                    
-                    // Notificar a JavaScript que las preferencias han cambiado
-                    activity.runOnUiThread(() -> {
-                        WebView webView = activity.findViewById(R.id.webview);
-                        webView.evaluateJavascript(
-                            "if (window.onAudioPreferencesUpdated) { window.onAudioPreferencesUpdated(" + soundEnabled + ", " + musicEnabled + "); }",
-                            null
-                        );
-                    });
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("GameBridge", "❌❌❌ Error actualizando preferencias de audio: " + e.getMessage());
-                });
+            DocumentReference userRef = firestore.user(uid);
+        
+            // Encolar en el buffer write-behind (último valor gana)
+            writeBuffer.put(userRef, "soundEnabled", soundEnabled);
+            writeBuffer.put(userRef, "musicEnabled", musicEnabled);
+            userState = userState.withAudio(soundEnabled, musicEnabled);
+            Log.d("GameBridge", "✅ Cache actualizado - soundEnabled: " + soundEnabled + ", musicEnabled: " + musicEnabled);
+        
+            // Notificar a JavaScript que las preferencias han cambiado
+            js.emitLatest("onAudioPreferencesUpdated", soundEnabled, musicEnabled);
         } else {
             Log.w("GameBridge", "⚠️ Usuario no logueado, no se pueden actualizar preferencias de audio");
         }
@@ -1480,317 +1871,90 @@ public class GameBridge {
 
     @JavascriptInterface
     public boolean getSoundEnabled() {
-        return cachedSoundEnabled;
+        long metricsStart = metrics.enter("getSoundEnabled");
+        try {
+            return getSoundEnabledImpl();
+        } finally {
+            metrics.exit("getSoundEnabled", metricsStart);
+        }
     }
 
-    @JavascriptInterface
-    public boolean getMusicEnabled() {
-        return cachedMusicEnabled;
+    private boolean getSoundEnabledImpl() {
+        return userState.isSoundEnabled();
     }
 
     @JavascriptInterface
-    public void getPabellonRanking() {
-        Log.d("GameBridge", "getPabellonRanking() llamado");
-        
-        // Obtener ranking de Pabellón desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "pabellon")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    QuerySnapshot snapshot = task.getResult();
-                    if (snapshot != null && !snapshot.isEmpty()) {
-                        // Obtener datos de usuarios para cada entrada del ranking
-                        List<String> userIds = new ArrayList<>();
-                        Map<String, DocumentSnapshot> progressDocs = new HashMap<>();
-                        
-                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-                            String userId = doc.getString("uid"); // Corrected from "userId" to "uid"
-                            if (userId != null) {
-                                userIds.add(userId);
-                                progressDocs.put(userId, doc);
-                            }
-                        }
-                        
-                        // Limitar userIds a 10 para la consulta whereIn
-                        List<String> finalUserIds = userIds.subList(0, Math.min(userIds.size(), 10));
-                        
-                        if (finalUserIds.isEmpty()) {
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onPabellonRankingReceived) { window.onPabellonRankingReceived([]); }";
-                                webView.evaluateJavascript(jsCode, null);
-                            });
-                            return;
-                        }
+    public boolean getMusicEnabled() {
+        long metricsStart = metrics.enter("getMusicEnabled");
+        try {
+            return getMusicEnabledImpl();
+        } finally {
+            metrics.exit("getMusicEnabled", metricsStart);
+        }
+    }
 
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), finalUserIds)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    QuerySnapshot userSnapshot = userTask.getResult();
-                                    Map<String, DocumentSnapshot> userDocs = new HashMap<>();
-                                    
-                                    if (userSnapshot != null) {
-                                        for (DocumentSnapshot userDoc : userSnapshot.getDocuments()) {
-                                            userDocs.put(userDoc.getId(), userDoc);
-                                        }
-                                    }
-                                    
-                                    // Crear ranking combinado
-                                    JSONArray jsonRanking = new JSONArray();
-                                    for (DocumentSnapshot progressDoc : progressDocs.values()) {
-                                        String userId = progressDoc.getString("uid"); // Corrected from "userId" to "uid"
-                                        DocumentSnapshot userDoc = userDocs.get(userId);
-                                        
-                                        if (userDoc != null) {
-                                            try {
-                                                JSONObject entry = new JSONObject();
-                                                entry.put("nick", userDoc.getString("nick"));
-                                                entry.put("bestLevel", progressDoc.getLong("bestLevel")); // Usar bestLevel para consistencia
-                                                entry.put("photoURL", userDoc.getString("photoURL"));
-                                                entry.put("candiesTotal", userDoc.getLong("candiesTotal")); // Added candiesTotal
-                                                jsonRanking.put(entry);
-                                            } catch (JSONException e) {
-                                                Log.e("GameBridge", "Error creando entrada del ranking", e);
-                                            }
-                                        }
-                                    }
-                                    
-                                    // Enviar ranking a JavaScript
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        String jsCode = "if (window.onPabellonRankingReceived) { window.onPabellonRankingReceived(" + jsonRanking.toString() + "); }";
-                                        Log.d("GameBridge", "📤 Enviando ranking de Pabellón: " + jsCode);
-                                        webView.evaluateJavascript(jsCode, null);
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onPabellonRankingReceived) { window.onPabellonRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Pabellón", task.getException());
-                }
-            });
+    private boolean getMusicEnabledImpl() {
+        return userState.isMusicEnabled();
     }
 
+    /**
+     * Informe de coste de Firestore de la sesión (lecturas, escrituras, bytes y aciertos
+     * de caché por colección y por operación) como JSON.
+     */
     @JavascriptInterface
-    public void getRioRanking() {
-        Log.d("GameBridge", "getRioRanking() llamado");
-        
-        // Obtener ranking de Río desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "rio")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    QuerySnapshot snapshot = task.getResult();
-                    if (snapshot != null && !snapshot.isEmpty()) {
-                        // Obtener datos de usuarios para cada entrada del ranking
-                        List<String> userIds = new ArrayList<>();
-                        Map<String, DocumentSnapshot> progressDocs = new HashMap<>();
-                        
-                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-                            String userId = doc.getString("uid"); // Corrected from "userId" to "uid"
-                            if (userId != null) {
-                                userIds.add(userId);
-                                progressDocs.put(userId, doc);
-                            }
-                        }
-                        
-                        // Limitar userIds a 10 para la consulta whereIn
-                        List<String> finalUserIds = userIds.subList(0, Math.min(userIds.size(), 10));
-                        
-                        if (finalUserIds.isEmpty()) {
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onRioRankingReceived) { window.onRioRankingReceived([]); }";
-                                webView.evaluateJavascript(jsCode, null);
-                            });
-                            return;
-                        }
-
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), finalUserIds)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    QuerySnapshot userSnapshot = userTask.getResult();
-                                    Map<String, DocumentSnapshot> userDocs = new HashMap<>();
-                                    
-                                    if (userSnapshot != null) {
-                                        for (DocumentSnapshot userDoc : userSnapshot.getDocuments()) {
-                                            userDocs.put(userDoc.getId(), userDoc);
-                                        }
-                                    }
-                                    
-                                    // Crear ranking combinado
-                                    JSONArray jsonRanking = new JSONArray();
-                                    for (DocumentSnapshot progressDoc : progressDocs.values()) {
-                                        String userId = progressDoc.getString("uid"); // Corrected from "userId" to "uid"
-                                        DocumentSnapshot userDoc = userDocs.get(userId);
-                                        
-                                        if (userDoc != null) {
-                                            try {
-                                                JSONObject entry = new JSONObject();
-                                                entry.put("nick", userDoc.getString("nick"));
-                                                entry.put("bestLevel", progressDoc.getLong("bestLevel")); // Usar bestLevel para consistencia
-                                                entry.put("photoURL", userDoc.getString("photoURL"));
-                                                entry.put("candiesTotal", userDoc.getLong("candiesTotal")); // Added candiesTotal
-                                                jsonRanking.put(entry);
-                                            } catch (JSONException e) {
-                                                Log.e("GameBridge", "Error creando entrada del ranking", e);
-                                            }
-                                        }
-                                    }
-                                    
-                                    // Enviar ranking a JavaScript
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        String jsCode = "if (window.onRioRankingReceived) { window.onRioRankingReceived(" + jsonRanking.toString() + "); }";
-                                        Log.d("GameBridge", "📤 Enviando ranking de Río: " + jsCode);
-                                        webView.evaluateJavascript(jsCode, null);
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onRioRankingReceived) { window.onRioRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Río", task.getException());
-                }
-            });
+    public String getFirestoreReport() {
+        long metricsStart = metrics.enter("getFirestoreReport");
+        try {
+            return firestore.report().toString();
+        } finally {
+            metrics.exit("getFirestoreReport", metricsStart);
+        }
     }
 
+    /**
+     * Métricas del puente (llamadas, concurrencia y latencias p50/p95/p99 por método
+     * y por Task de Firestore) como JSON.
+     */
     @JavascriptInterface
-    public void getParqueRanking() {
-        Log.d("GameBridge", "getParqueRanking() llamado");
-        
-        // Obtener ranking de Parque desde Firebase
-        db.collection("apps").document(APP_ID)
-            .collection("progress")
-            .whereEqualTo("gameId", "parque")
-            .orderBy("bestLevel", Query.Direction.DESCENDING)
-            .limit(20)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    QuerySnapshot snapshot = task.getResult();
-                    if (snapshot != null && !snapshot.isEmpty()) {
-                        // Obtener datos de usuarios para cada entrada del ranking
-                        List<String> userIds = new ArrayList<>();
-                        Map<String, DocumentSnapshot> progressDocs = new HashMap<>();
-                        
-                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-                            String userId = doc.getString("uid");
-                            if (userId != null) {
-                                userIds.add(userId);
-                                progressDocs.put(userId, doc);
-                            }
-                        }
-                        
-                        // Limitar userIds a 10 para la consulta whereIn
-                        List<String> finalUserIds = userIds.subList(0, Math.min(userIds.size(), 10));
-                        
-                        if (finalUserIds.isEmpty()) {
-                            activity.runOnUiThread(() -> {
-                                WebView webView = activity.findViewById(R.id.webview);
-                                String jsCode = "if (window.onParqueRankingReceived) { window.onParqueRankingReceived([]); }";
-                                webView.evaluateJavascript(jsCode, null);
-                            });
-                            return;
-                        }
+    public String getBridgeMetrics() {
+        long metricsStart = metrics.enter("getBridgeMetrics");
+        try {
+            return metrics.toJson().toString();
+        } finally {
+            metrics.exit("getBridgeMetrics", metricsStart);
+        }
+    }
 
-                        // Obtener datos de usuarios
-                        db.collection("apps").document(APP_ID)
-                            .collection("users")
-                            .whereIn(FieldPath.documentId(), finalUserIds)
-                            .get()
-                            .addOnCompleteListener(userTask -> {
-                                if (userTask.isSuccessful()) {
-                                    QuerySnapshot userSnapshot = userTask.getResult();
-                                    Map<String, DocumentSnapshot> userDocs = new HashMap<>();
-                                    
-                                    if (userSnapshot != null) {
-                                        for (DocumentSnapshot userDoc : userSnapshot.getDocuments()) {
-                                            userDocs.put(userDoc.getId(), userDoc);
-                                        }
-                                    }
-                                    
-                                    // Crear ranking combinado
-                                    JSONArray jsonRanking = new JSONArray();
-                                    for (DocumentSnapshot progressDoc : progressDocs.values()) {
-                                        String userId = progressDoc.getString("uid");
-                                        DocumentSnapshot userDoc = userDocs.get(userId);
-                                        
-                                        if (userDoc != null) {
-                                            try {
-                                                JSONObject entry = new JSONObject();
-                                                entry.put("nick", userDoc.getString("nick"));
-                                                entry.put("bestLevel", progressDoc.getLong("bestLevel"));
-                                                entry.put("photoURL", userDoc.getString("photoURL"));
-                                                entry.put("candiesTotal", userDoc.getLong("candiesTotal"));
-                                                jsonRanking.put(entry);
-                                            } catch (JSONException e) {
-                                                Log.e("GameBridge", "Error creando entrada del ranking", e);
-                                            }
-                                        }
-                                    }
-                                    
-                                    // Enviar ranking a JavaScript
-                                    activity.runOnUiThread(() -> {
-                                        WebView webView = activity.findViewById(R.id.webview);
-                                        String jsCode = "if (window.onParqueRankingReceived) { window.onParqueRankingReceived(" + jsonRanking.toString() + "); }";
-                                        Log.d("GameBridge", "📤 Enviando ranking de Parque: " + jsCode);
-                                        webView.evaluateJavascript(jsCode, null);
-                                    });
-                                } else {
-                                    Log.e("GameBridge", "Error obteniendo datos de usuarios", userTask.getException());
-                                }
-                            });
-                    } else {
-                        // No hay ranking, enviar lista vacía
-                        activity.runOnUiThread(() -> {
-                            WebView webView = activity.findViewById(R.id.webview);
-                            String jsCode = "if (window.onParqueRankingReceived) { window.onParqueRankingReceived([]); }";
-                            webView.evaluateJavascript(jsCode, null);
-                        });
-                    }
-                } else {
-                    Log.e("GameBridge", "Error obteniendo ranking de Parque", task.getException());
-                }
-            });
+    /**
+     * Vuelca las métricas a files/bridge_metrics.json; devuelve la ruta o "" si falla.
+     */
+    @JavascriptInterface
+    public String dumpBridgeMetrics() {
+        long metricsStart = metrics.enter("dumpBridgeMetrics");
+        try {
+            String path = metrics.dump();
+            return path != null ? path : "";
+        } finally {
+            metrics.exit("dumpBridgeMetrics", metricsStart);
+        }
     }
 
     @JavascriptInterface
     public void testMethod() {
-        Log.e("GameBridge", "🧪🧪🧪 testMethod() LLAMADO desde JavaScript 🧪🧪🧪");
+        long metricsStart = metrics.enter("testMethod");
+        try {
+            Log.e("GameBridge", "🧪🧪🧪 testMethod() LLAMADO desde JavaScript 🧪🧪🧪");
+        } finally {
+            metrics.exit("testMethod", metricsStart);
+        }
+    }
+
+    private interface Reply {
+        void onResult(Object result);
+    }
+
+    private interface SyncCallback {
+        void onResult(Map<String, Long> levels, boolean ok);
     }
 
 }
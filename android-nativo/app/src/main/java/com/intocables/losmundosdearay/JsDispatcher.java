@@ -0,0 +1,122 @@
+package com.intocables.losmundosdearay;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import android.webkit.WebView;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Canal nativo → JS agrupado por frame.
+ * Los eventos (llamadas a window.X o scripts sueltos) se encolan desde cualquier hilo
+ * y se envían una sola vez por frame de Choreographer, todos juntos en un único
+ * evaluateJavascript. Cada evento va en su propio try/catch para que uno que falle
+ * no corte al resto.
+ */
+public class JsDispatcher implements Choreographer.FrameCallback {
+    private static final String TAG = "JsDispatcher";
+
+    private final WebView webView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<String> queue = new ArrayList<>();
+    // Eventos "solo el último cuenta": nombre de función -> índice en la cola
+    private final Map<String, Integer> latestIndex = new HashMap<>();
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    private boolean frameScheduled = false;
+
+    public JsDispatcher(WebView webView) {
+        this.webView = webView;
+    }
+
+    /**
+     * Encola window.fn(args...) si existe. Los argumentos se serializan como JSON
+     * (String, números, booleanos, JSONObject, JSONArray o null).
+     */
+    public void emit(String fn, Object... args) {
+        enqueue(null, call(fn, args));
+    }
+
+    /**
+     * Como emit, pero si ya hay una llamada a fn pendiente en este frame se sustituye
+     * por esta (p.ej. updateHUD: basta con una por frame).
+     */
+    public void emitLatest(String fn, Object... args) {
+        enqueue(fn, call(fn, args));
+    }
+
+    /**
+     * Encola un script tal cual.
+     */
+    public void run(String script) {
+        enqueue(null, script);
+    }
+
+    private synchronized void enqueue(String coalesceKey, String script) {
+        if (coalesceKey != null) {
+            Integer index = latestIndex.get(coalesceKey);
+            if (index != null) {
+                queue.set(index, script);
+                return;
+            }
+            latestIndex.put(coalesceKey, queue.size());
+        }
+        queue.add(script);
+
+        if (!frameScheduled) {
+            frameScheduled = true;
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                scheduleFrame.run();
+            } else {
+                mainHandler.post(scheduleFrame);
+            }
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flushNow();
+    }
+
+    /**
+     * Envía ya lo pendiente sin esperar al siguiente frame (pausa de juego, onPause).
+     * Debe llamarse desde el hilo principal.
+     */
+    public void flushNow() {
+        List<String> scripts;
+        synchronized (this) {
+            if (frameScheduled) {
+                frameScheduled = false;
+                mainHandler.removeCallbacks(scheduleFrame);
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+            if (queue.isEmpty()) {
+                return;
+            }
+            scripts = new ArrayList<>(queue);
+            queue.clear();
+            latestIndex.clear();
+        }
+
+        StringBuilder batch = new StringBuilder();
+        for (String script : scripts) {
+            batch.append("try { ").append(script).append(" } catch (e) { console.error(e); }\n");
+        }
+        if (scripts.size() > 1) {
+            Log.d(TAG, "📤 " + scripts.size() + " eventos en un frame");
+        }
+        webView.evaluateJavascript(batch.toString(), null);
+    }
+
+    private static String call(String fn, Object... args) {
+        JSONArray json = new JSONArray();
+        for (Object arg : args) {
+            json.put(arg);
+        }
+        return "if (typeof window." + fn + " === 'function') { window." + fn + ".apply(window, " + json + "); }";
+    }
+}
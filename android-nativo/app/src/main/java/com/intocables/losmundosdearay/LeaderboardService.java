@@ -0,0 +1,484 @@
+package com.intocables.losmundosdearay;
+
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Motor genérico de rankings por juego.
+ * Fase 1: top N de apps/aray/progress por bestLevel.
+ * Fase 2: datos de usuario (nick, caramelos) con whereIn troceado en bloques
+ * de WHERE_IN_LIMIT ids, lanzados en paralelo con Tasks.whenAllSuccess.
+ * El ranking de caramelos se pagina con cursores (candiesTotal, uid) sobre apps/aray/users.
+ *
+ * Los documentos de progreso llevan una copia desnormalizada de los datos del jugador
+ * (campo "player": nick, photoURL, candiesTotal) escrita en updateBestLevel y reescrita
+ * entera con refreshPlayerCopy al cambiar el nick o los caramelos; cuando todos la tienen,
+ * el ranking se resuelve con una sola consulta y se omite la fase 2.
+ *
+ * La posición del propio jugador se ancla en su documento leído del servidor (la
+ * puntuación local puede ir por delante o por detrás de la que ven las consultas), se
+ * calcula con una agregación count() (1 lectura facturada) y se cachea durante la sesión
+ * mientras su puntuación no cambie.
+ * El modo "alrededor de mí" usa ese mismo documento como cursor: endBefore + limitToLast(k)
+ * por encima y startAt + limit(k + 1) por debajo (incluye al jugador), así que cuesta
+ * ~2K lecturas sea cual sea el tamaño.
+ */
+public class LeaderboardService {
+    private static final String TAG = "LeaderboardService";
+
+    /** Máximo de valores por whereIn que aceptamos en una consulta. */
+    public static final int WHERE_IN_LIMIT = 10;
+    public static final int DEFAULT_LIMIT = 20;
+    /** Campo de los documentos de progreso con la copia de los datos del jugador. */
+    public static final String PLAYER_FIELD = "player";
+    /** Intervalo mínimo entre refrescos de la copia por cambios de caramelos. */
+    public static final long PLAYER_COPY_REFRESH_MS = 10 * 60 * 1000;
+    /** gameId especial para el ranking de caramelos. */
+    public static final String CANDIES = "candies";
+    /** Jugadores por encima y por debajo en el modo "alrededor de mí". */
+    public static final int DEFAULT_AROUND = 5;
+
+    // Caché de sesión: "uid|gameId" -> {puntuación, posición}
+    private static final Map<String, long[]> rankCache = new ConcurrentHashMap<>();
+
+    private final FirestoreAccess firestore;
+
+    public LeaderboardService(FirestoreAccess firestore) {
+        this.firestore = firestore;
+    }
+
+    /**
+     * Top N jugadores de un juego, ordenados por bestLevel descendente.
+     * Si algo falla se devuelve una lista vacía.
+     */
+    public void top(String gameId, int n, RankingCallback callback) {
+        Query query = progress()
+            .whereEqualTo("gameId", gameId)
+            .orderBy("bestLevel", Query.Direction.DESCENDING)
+            .limit(n);
+        firestore.get("ranking.top", FirestoreAccess.PROGRESS, query)
+            .addOnCompleteListener(task -> {
+                if (!task.isSuccessful() || task.getResult() == null) {
+                    Log.e(TAG, "Error obteniendo ranking de " + gameId, task.getException());
+                    callback.onResult(new ArrayList<>());
+                    return;
+                }
+
+                List<DocumentSnapshot> progressDocs = new ArrayList<>();
+                Set<String> uids = new LinkedHashSet<>();
+                List<String> missingUids = new ArrayList<>();
+                for (DocumentSnapshot doc : task.getResult().getDocuments()) {
+                    String uid = doc.getString("uid");
+                    if (uid != null && !uid.isEmpty() && uids.add(uid)) {
+                        progressDocs.add(doc);
+                        if (doc.getString(PLAYER_FIELD + ".nick") == null) {
+                            missingUids.add(uid);
+                        }
+                    }
+                }
+
+                if (uids.isEmpty()) {
+                    callback.onResult(new ArrayList<>());
+                    return;
+                }
+
+                // Solo se consultan usuarios para los documentos sin copia desnormalizada
+                if (missingUids.isEmpty()) {
+                    callback.onResult(buildRanking(gameId, progressDocs, new HashMap<>(), 1));
+                    return;
+                }
+
+                fetchUsers(missingUids, userDocs -> {
+                    if (userDocs == null) {
+                        callback.onResult(new ArrayList<>());
+                        return;
+                    }
+                    callback.onResult(buildRanking(gameId, progressDocs, userDocs, 1));
+                });
+            });
+    }
+
+    private List<RankingItem> buildRanking(String gameId, List<DocumentSnapshot> progressDocs,
+                                           Map<String, DocumentSnapshot> userDocs, int firstPosition) {
+        List<RankingItem> ranking = new ArrayList<>();
+        for (DocumentSnapshot progressDoc : progressDocs) {
+            String uid = progressDoc.getString("uid");
+            Long bestLevel = progressDoc.getLong("bestLevel");
+            DocumentSnapshot userDoc = userDocs.get(uid);
+
+            String nick;
+            String photoURL;
+            Long candies;
+            if (userDoc != null) {
+                nick = userDoc.getString("nick");
+                photoURL = userDoc.getString("photoURL");
+                candies = userDoc.getLong("candiesTotal");
+            } else if (progressDoc.getString(PLAYER_FIELD + ".nick") != null) {
+                nick = progressDoc.getString(PLAYER_FIELD + ".nick");
+                photoURL = progressDoc.getString(PLAYER_FIELD + ".photoURL");
+                candies = progressDoc.getLong(PLAYER_FIELD + ".candiesTotal");
+            } else {
+                continue; // Usuario borrado
+            }
+
+            ranking.add(new RankingItem(
+                firstPosition + ranking.size(),
+                uid,
+                nick,
+                photoURL,
+                bestLevel != null ? bestLevel : 0L,
+                candies != null ? candies.intValue() : 0
+            ));
+        }
+        Log.d(TAG, "📊 Ranking de " + gameId + ": " + ranking.size() + " jugadores");
+        return ranking;
+    }
+
+    /**
+     * Posición del jugador: 1 + número de jugadores con más puntuación, calculado con
+     * count() sobre bestLevel > mine (juegos) o candiesTotal > mine (CANDIES), con la
+     * puntuación de su documento en el servidor.
+     * Devuelve -1 si no tiene puntuación o alguna lectura falla.
+     */
+    public void myRank(String uid, String gameId, RankCallback callback) {
+        anchor(uid, gameId, doc -> {
+            if (doc == null) {
+                callback.onResult(-1, 0);
+                return;
+            }
+            rankFor(uid, gameId, scoreOf(doc, gameId), callback);
+        });
+    }
+
+    private void rankFor(String uid, String gameId, long myScore, RankCallback callback) {
+        if (myScore <= 0) {
+            callback.onResult(-1, myScore);
+            return;
+        }
+
+        String key = uid + "|" + gameId;
+        long[] cached = rankCache.get(key);
+        if (cached != null && cached[0] == myScore) {
+            callback.onResult(cached[1], myScore);
+            return;
+        }
+
+        Query above = CANDIES.equals(gameId)
+            ? users().whereGreaterThan("candiesTotal", myScore)
+            : progress().whereEqualTo("gameId", gameId).whereGreaterThan("bestLevel", myScore);
+
+        firestore.count("ranking.myRank", CANDIES.equals(gameId) ? FirestoreAccess.USERS : FirestoreAccess.PROGRESS, above)
+            .addOnCompleteListener(task -> {
+                if (!task.isSuccessful() || task.getResult() == null) {
+                    Log.e(TAG, "Error calculando posición en " + gameId, task.getException());
+                    callback.onResult(-1, myScore);
+                    return;
+                }
+                long rank = task.getResult().getCount() + 1;
+                rankCache.put(key, new long[]{myScore, rank});
+                Log.d(TAG, "🏅 Posición en " + gameId + ": #" + rank + " (" + myScore + ")");
+                callback.onResult(rank, myScore);
+            });
+    }
+
+    /**
+     * Ventana del ranking alrededor del jugador: hasta k por encima, él mismo y hasta k
+     * por debajo, para un juego o para CANDIES. Las posiciones se numeran a partir de
+     * myRank (count()), así que el coste total es 2k + 2 documentos + 1 agregación.
+     * Si el jugador no tiene puntuación en el servidor se devuelve una lista vacía.
+     */
+    public void around(String uid, String gameId, int k, RankingCallback callback) {
+        anchor(uid, gameId, doc -> {
+            long myScore = doc != null ? scoreOf(doc, gameId) : 0;
+            if (myScore <= 0) {
+                callback.onResult(new ArrayList<>());
+                return;
+            }
+            around(uid, gameId, doc, myScore, k, callback);
+        });
+    }
+
+    private void around(String uid, String gameId, DocumentSnapshot anchor, long myScore, int k, RankingCallback callback) {
+        boolean candies = CANDIES.equals(gameId);
+        Query ordered = candies
+            ? users()
+                .whereGreaterThan("candiesTotal", 0)
+                .orderBy("candiesTotal", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING)
+            : progress()
+                .whereEqualTo("gameId", gameId)
+                .orderBy("bestLevel", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+
+        String path = candies ? FirestoreAccess.USERS : FirestoreAccess.PROGRESS;
+        Task<QuerySnapshot> above = firestore.get("ranking.around", path, ordered.endBefore(anchor).limitToLast(k));
+        Task<QuerySnapshot> below = firestore.get("ranking.around", path, ordered.startAt(anchor).limit(k + 1));
+
+        rankFor(uid, gameId, myScore, (rank, score) -> Tasks.whenAllComplete(above, below).addOnCompleteListener(all -> {
+            if (!above.isSuccessful() || !below.isSuccessful() || rank <= 0) {
+                Log.e(TAG, "Error obteniendo ranking alrededor del jugador en " + gameId,
+                    above.getException() != null ? above.getException() : below.getException());
+                callback.onResult(new ArrayList<>());
+                return;
+            }
+
+            List<DocumentSnapshot> window = new ArrayList<>(above.getResult().getDocuments());
+            window.addAll(below.getResult().getDocuments());
+
+            // count() no cuenta empates; los empatados que quedan por encima en la ventana
+            // desplazan al jugador hacia abajo en la numeración ordinal
+            int ties = 0;
+            for (DocumentSnapshot doc : above.getResult().getDocuments()) {
+                Long value = doc.getLong(candies ? "candiesTotal" : "bestLevel");
+                if (value != null && value == myScore) {
+                    ties++;
+                }
+            }
+            int firstPosition = Math.max(1, (int) rank + ties - above.getResult().size());
+
+            if (candies) {
+                List<RankingItem> ranking = new ArrayList<>();
+                for (DocumentSnapshot userDoc : window) {
+                    ranking.add(candyItem(userDoc, firstPosition + ranking.size()));
+                }
+                Log.d(TAG, "🍬 Caramelos alrededor de #" + rank + ": " + ranking.size() + " jugadores");
+                callback.onResult(ranking);
+                return;
+            }
+
+            List<String> missingUids = new ArrayList<>();
+            for (DocumentSnapshot doc : window) {
+                String docUid = doc.getString("uid");
+                if (docUid != null && doc.getString(PLAYER_FIELD + ".nick") == null) {
+                    missingUids.add(docUid);
+                }
+            }
+            if (missingUids.isEmpty()) {
+                callback.onResult(buildRanking(gameId, window, new HashMap<>(), firstPosition));
+                return;
+            }
+            fetchUsers(missingUids, userDocs -> callback.onResult(userDocs == null
+                ? new ArrayList<>()
+                : buildRanking(gameId, window, userDocs, firstPosition)));
+        }));
+    }
+
+    /**
+     * Documento del jugador que ancla myRank y around (users/{uid} para CANDIES,
+     * progress/{uid}_{gameId} para un juego), leído del servidor. null si no existe o falla.
+     */
+    private void anchor(String uid, String gameId, AnchorCallback callback) {
+        DocumentReference ref = CANDIES.equals(gameId) ? firestore.user(uid) : firestore.progressDoc(uid + "_" + gameId);
+        firestore.get("ranking.anchor", ref, Source.SERVER).addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null || !task.getResult().exists()) {
+                if (!task.isSuccessful()) {
+                    Log.e(TAG, "Error leyendo el documento del jugador en " + gameId, task.getException());
+                }
+                callback.onResult(null);
+                return;
+            }
+            callback.onResult(task.getResult());
+        });
+    }
+
+    private static long scoreOf(DocumentSnapshot doc, String gameId) {
+        Long value = doc.getLong(CANDIES.equals(gameId) ? "candiesTotal" : "bestLevel");
+        return value != null ? value : 0L;
+    }
+
+    /**
+     * Copia compacta de los datos de jugador que se guarda en cada documento de progreso.
+     */
+    public static Map<String, Object> playerCopy(String nick, String photoURL, long candiesTotal) {
+        Map<String, Object> player = new HashMap<>();
+        player.put("nick", nick);
+        player.put("photoURL", photoURL);
+        player.put("candiesTotal", candiesTotal);
+        return player;
+    }
+
+    /**
+     * Reescribe la copia desnormalizada completa (ver playerCopy) en todos los documentos
+     * de progreso del jugador (apps/aray/progress/{uid}_*), con un único batch. Se sustituye
+     * el mapa entero para no dejar copias a medias que el ranking daría por buenas.
+     */
+    public void refreshPlayerCopy(String uid, Map<String, Object> player) {
+        String prefix = uid + "_";
+        Query query = progress()
+            .orderBy(FieldPath.documentId())
+            .startAt(prefix)
+            .endAt(prefix + "\uf8ff");
+        firestore.get("player.propagate", FirestoreAccess.PROGRESS, query)
+            .addOnCompleteListener(task -> {
+                if (!task.isSuccessful() || task.getResult() == null || task.getResult().isEmpty()) {
+                    return;
+                }
+                FirestoreAccess.Batch batch = firestore.batch("player.propagate");
+                for (DocumentSnapshot doc : task.getResult().getDocuments()) {
+                    batch.update(doc.getReference(), PLAYER_FIELD, player);
+                }
+                batch.commit()
+                    .addOnSuccessListener(v -> Log.d(TAG, "✅ Copia del jugador actualizada en " + task.getResult().size() + " documentos de progreso"))
+                    .addOnFailureListener(e -> Log.e(TAG, "❌ Error actualizando la copia del jugador en progreso", e));
+            });
+    }
+
+    /**
+     * Una página del ranking de caramelos: orderBy(candiesTotal desc, uid desc).limit(n),
+     * continuando tras el cursor si se indica. Solo lee n documentos por página.
+     *
+     * @param after cursor devuelto por la página anterior, o null para la primera
+     */
+    public void candyPage(PageCursor after, int n, PageCallback callback) {
+        Query query = users()
+            .whereGreaterThan("candiesTotal", 0)
+            .orderBy("candiesTotal", Query.Direction.DESCENDING)
+            .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (after != null) {
+            query = query.startAfter(after.candiesTotal, after.uid);
+        }
+        int offset = after != null ? after.position : 0;
+
+        firestore.get("ranking.candyPage", FirestoreAccess.USERS, query.limit(n)).addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Log.e(TAG, "Error obteniendo ranking de caramelos", task.getException());
+                callback.onResult(new ArrayList<>(), null);
+                return;
+            }
+
+            List<RankingItem> page = new ArrayList<>();
+            for (DocumentSnapshot userDoc : task.getResult().getDocuments()) {
+                page.add(candyItem(userDoc, offset + page.size() + 1));
+            }
+
+            PageCursor next = null;
+            if (page.size() == n) {
+                RankingItem last = page.get(page.size() - 1);
+                next = new PageCursor(last.getCandiesTotal(), last.getUid(), last.getPosition());
+            }
+            Log.d(TAG, "🍬 Página de caramelos desde #" + (offset + 1) + ": " + page.size() + " jugadores");
+            callback.onResult(page, next);
+        });
+    }
+
+    private static RankingItem candyItem(DocumentSnapshot userDoc, int position) {
+        Long candies = userDoc.getLong("candiesTotal");
+        return new RankingItem(
+            position,
+            userDoc.getId(),
+            userDoc.getString("nick"),
+            userDoc.getString("photoURL"),
+            0L,
+            candies != null ? candies.intValue() : 0
+        );
+    }
+
+    /**
+     * Lee los documentos de usuario de una lista de uids, troceando el whereIn
+     * y lanzando todos los trozos en paralelo. Devuelve null si alguno falla.
+     */
+    private void fetchUsers(List<String> uids, UsersCallback callback) {
+        List<Task<QuerySnapshot>> chunks = new ArrayList<>();
+        for (int i = 0; i < uids.size(); i += WHERE_IN_LIMIT) {
+            List<String> chunk = uids.subList(i, Math.min(uids.size(), i + WHERE_IN_LIMIT));
+            chunks.add(firestore.get("ranking.users", FirestoreAccess.USERS,
+                users().whereIn(FieldPath.documentId(), new ArrayList<>(chunk))));
+        }
+
+        Tasks.<QuerySnapshot>whenAllSuccess(chunks).addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                Log.e(TAG, "Error obteniendo datos de usuarios", task.getException());
+                callback.onResult(null);
+                return;
+            }
+            Map<String, DocumentSnapshot> userDocs = new HashMap<>();
+            for (QuerySnapshot snapshot : task.getResult()) {
+                for (DocumentSnapshot userDoc : snapshot.getDocuments()) {
+                    userDocs.put(userDoc.getId(), userDoc);
+                }
+            }
+            callback.onResult(userDocs);
+        });
+    }
+
+    private CollectionReference progress() {
+        return firestore.progress();
+    }
+
+    private CollectionReference users() {
+        return firestore.users();
+    }
+
+    public interface RankingCallback {
+        void onResult(List<RankingItem> ranking);
+    }
+
+    public interface RankCallback {
+        void onResult(long rank, long score);
+    }
+
+    public interface PageCallback {
+        void onResult(List<RankingItem> page, PageCursor next);
+    }
+
+    /**
+     * Cursor de paginación serializable a JS: último (candiesTotal, uid) visto y su posición.
+     */
+    public static class PageCursor {
+        final long candiesTotal;
+        final String uid;
+        final int position;
+
+        public PageCursor(long candiesTotal, String uid, int position) {
+            this.candiesTotal = candiesTotal;
+            this.uid = uid;
+            this.position = position;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("candiesTotal", candiesTotal);
+            json.put("uid", uid);
+            json.put("position", position);
+            return json;
+        }
+
+        public static PageCursor fromJson(String cursorJson) {
+            if (cursorJson == null || cursorJson.isEmpty() || "null".equals(cursorJson)) {
+                return null;
+            }
+            try {
+                JSONObject json = new JSONObject(cursorJson);
+                return new PageCursor(json.getLong("candiesTotal"), json.getString("uid"), json.optInt("position", 0));
+            } catch (JSONException e) {
+                Log.e(TAG, "Cursor de ranking inválido: " + cursorJson, e);
+                return null;
+            }
+        }
+    }
+
+    private interface AnchorCallback {
+        void onResult(DocumentSnapshot doc);
+    }
+
+    private interface UsersCallback {
+        void onResult(Map<String, DocumentSnapshot> userDocs);
+    }
+}
@@ -16,7 +16,6 @@ import com.google.firebase.auth.AuthCredential;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.GoogleAuthProvider;
-import com.google.firebase.firestore.FirebaseFirestore;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,7 +25,7 @@ public class LoginActivity extends AppCompatActivity {
     
     private GoogleSignInClient googleSignInClient;
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
+    private FirestoreAccess firestore;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,7 +33,7 @@ public class LoginActivity extends AppCompatActivity {
         setContentView(R.layout.activity_login);
 
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
+        firestore = FirestoreAccess.getInstance();
 
         // Configurar Google Sign-In
         String webClientId = getString(R.string.default_web_client_id);
@@ -124,8 +123,7 @@ public class LoginActivity extends AppCompatActivity {
 
         Log.d("LoginActivity", "Buscando usuario en: apps/" + APP_ID + "/users/" + uid);
         
-        db.collection("apps").document(APP_ID).collection("users").document(uid)
-                .get()
+        firestore.get("login.user", firestore.user(uid))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         boolean exists = task.getResult().exists();
@@ -134,7 +132,7 @@ public class LoginActivity extends AppCompatActivity {
                         if (!exists) {
                             // Usuario nuevo - crear
                             userData.put("createdAt", System.currentTimeMillis());
-                            db.collection("apps").document(APP_ID).collection("users").document(uid).set(userData)
+                            firestore.set("login.createUser", firestore.user(uid), userData)
                                     .addOnSuccessListener(aVoid -> {
                                         // Usuario nuevo - pedir nick
                                         Intent nickIntent = new Intent(this, NickSetupActivity.class);
@@ -166,7 +164,7 @@ public class LoginActivity extends AppCompatActivity {
                                 Boolean musicEnabled = (Boolean) task.getResult().get("musicEnabled");
                                 if (soundEnabled == null) updateData.put("soundEnabled", true);
                                 if (musicEnabled == null) updateData.put("musicEnabled", true);
-                                db.collection("apps").document(APP_ID).collection("users").document(uid).update(updateData)
+                                firestore.update("login.touchUser", firestore.user(uid), updateData)
                                         .addOnSuccessListener(aVoid -> {
                                             // Regresar al pueblo en lugar de ir al ranking
                                             setResult(Activity.RESULT_OK);
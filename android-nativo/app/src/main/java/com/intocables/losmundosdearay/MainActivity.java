@@ -7,39 +7,71 @@ import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.webkit.WebSettings;
 import android.widget.Toast;
+import java.util.Collections;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.view.WindowCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.core.view.WindowInsetsControllerCompat;
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
 import com.google.android.gms.ads.AdView;
 
 public class MainActivity extends AppCompatActivity {
     private WebView webView;
     private GameBridge gameBridge;
     private AdManager adManager;
+    private JsDispatcher jsDispatcher;
+    private StartupOrchestrator startup;
+    private ScriptHandler userDataScript;
+    private WebAssets webAssets;
+    // Migrando localStorage de file:// (páginas intermedias, sin lógica de onPageFinished)
+    private boolean migratingStorage = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        startup = new StartupOrchestrator();
+        startup.run("layout", () -> setContentView(R.layout.activity_main));
 
         // Configurar modo inmersivo (pantalla completa)
-        setupImmersiveMode();
+        startup.run("immersive", this::setupImmersiveMode);
 
-        // Configurar WebView
+        // Construcción ligera en el hilo principal: nada de SDKs ni red aquí
         webView = findViewById(R.id.webview);
-        setupWebView();
-
-        // Configurar AdMob
+        jsDispatcher = new JsDispatcher(webView);
         adManager = new AdManager(this);
         adManager.setWebView(webView); // Pasar WebView para pausar/reanudar juegos
-        
-        // Configurar el AdView
+        adManager.setJsDispatcher(jsDispatcher);
+        startup.run("bridge", () -> {
+            gameBridge = new GameBridge(this, adManager);
+            webView.addJavascriptInterface(gameBridge, "GameBridge");
+            // MainActivity interface removida - no se usa desde JavaScript
+        });
+
+        // Configurar WebView y empezar a cargar el juego cuanto antes
+        startup.run("webview", this::setupWebView);
+        startup.watchFirstFrame(webView);
+
+        // Pasos independientes en paralelo, fuera del hilo principal
+        startup.inBackground("googleSignIn", gameBridge::prepareSignInClient);
+        startup.inBackground("firestore", gameBridge::connect);
+        startup.inBackground("journal", gameBridge::preloadJournal);
+        startup.inBackground("merge", gameBridge::preloadMerge);
+
+        // AdMob y el banner esperan al primer frame de la WebView
+        startup.afterFirstFrame("banner.layout", this::setupBannerLayout);
+        startup.inBackgroundAfterFirstFrame("ads.init", adManager::initialize);
+    }
+
+    private void setupBannerLayout() {
         AdView adView = findViewById(R.id.adView);
         if (adView != null) {
             adView.setVisibility(View.VISIBLE);
@@ -54,11 +86,6 @@ public class MainActivity extends AppCompatActivity {
             }
             adView.requestLayout();
         }
-
-        // Crear bridge
-        gameBridge = new GameBridge(this, adManager);
-        webView.addJavascriptInterface(gameBridge, "GameBridge");
-        // MainActivity interface removida - no se usa desde JavaScript
     }
 
     private void setupImmersiveMode() {
@@ -81,13 +108,25 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        // Pausar música cuando la app se minimiza
-        if (webView != null) {
-            webView.evaluateJavascript(
-                "if (window.stopBackgroundMusic) window.stopBackgroundMusic();",
-                null
-            );
+        // Volcar caramelos/preferencias pendientes antes de ir a segundo plano
+        if (gameBridge != null) {
+            gameBridge.flushPendingWrites();
+        }
+        // Pausar música cuando la app se minimiza (sin esperar al siguiente frame)
+        if (jsDispatcher != null) {
+            jsDispatcher.emit("stopBackgroundMusic");
+            jsDispatcher.flushNow();
         }
+        // Coste de Firestore acumulado en la sesión (lecturas/escrituras por colección)
+        FirestoreAccess.getInstance().logReport();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (gameBridge != null) {
+            gameBridge.release();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -96,16 +135,15 @@ public class MainActivity extends AppCompatActivity {
         // Re-aplicar modo inmersivo al volver a la actividad
         setupImmersiveMode();
         // Reanudar música cuando la app vuelve al primer plano (solo si estaba habilitada)
-        if (webView != null) {
-            webView.evaluateJavascript(
+        if (jsDispatcher != null) {
+            jsDispatcher.run(
                 "(function() { " +
                 "  var musicEnabled = window.musicEnabled !== false && " +
                 "    (localStorage.getItem('musicEnabled') !== 'false'); " +
                 "  if (musicEnabled && window.playBackgroundMusic) { " +
                 "    window.playBackgroundMusic(); " +
                 "  } " +
-                "})();",
-                null
+                "})();"
             );
         }
     }
@@ -134,11 +172,12 @@ public class MainActivity extends AppCompatActivity {
         WebSettings webSettings = webView.getSettings();
         webSettings.setJavaScriptEnabled(true);
         webSettings.setDomStorageEnabled(true);
-        webSettings.setAllowFileAccess(true);
-        webSettings.setAllowContentAccess(true);
-        webSettings.setAllowFileAccessFromFileURLs(true);
-        webSettings.setAllowUniversalAccessFromFileURLs(true);
-        webSettings.setMixedContentMode(WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
+        // Los assets llegan por https://appassets.androidplatform.net (WebAssets): sin acceso a ficheros
+        webSettings.setAllowFileAccess(false);
+        webSettings.setAllowContentAccess(false);
+        webSettings.setAllowFileAccessFromFileURLs(false);
+        webSettings.setAllowUniversalAccessFromFileURLs(false);
+        webSettings.setMixedContentMode(WebSettings.MIXED_CONTENT_NEVER_ALLOW);
         webSettings.setCacheMode(WebSettings.LOAD_DEFAULT);
         webSettings.setLoadWithOverviewMode(true);
         webSettings.setUseWideViewPort(true);
@@ -149,13 +188,28 @@ public class MainActivity extends AppCompatActivity {
         
         // Configuraciones específicas para audio
         webSettings.setMediaPlaybackRequiresUserGesture(false);
-        webSettings.setAllowFileAccessFromFileURLs(true);
-        webSettings.setAllowUniversalAccessFromFileURLs(true);
+
+        webAssets = new WebAssets(this);
+        webAssets.clearCacheIfUpdated(webView);
 
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                return webAssets.intercept(request.getUrl());
+            }
+
             @Override
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
+                if (migratingStorage) {
+                    if (url == null || !url.startsWith(WebAssets.INDEX_URL)) {
+                        return;
+                    }
+                    // Fuera del historial las páginas intermedias de la migración
+                    migratingStorage = false;
+                    view.clearHistory();
+                }
+                startup.mark("pageFinished");
                 // Inyectar CSS para arreglar el viewport
                 injectViewportFix();
                 // Inyectar usuario si está logueado
@@ -166,8 +220,16 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // Cargar el juego
-        webView.loadUrl("file:///android_asset/index.html");
+        // Usuario conocido disponible antes de que se ejecute ningún script de la página
+        injectUserDataAtDocumentStart();
+
+        // Cargar el juego (la primera vez, tras traer el localStorage del origen file://)
+        if (webAssets.isStorageMigrated()) {
+            webView.loadUrl(WebAssets.INDEX_URL);
+        } else {
+            migratingStorage = true;
+            webAssets.exportLegacyStorage(webView);
+        }
         
         // El banner se cargará desde onWindowFocusChanged cuando la actividad esté completamente visible
     }
@@ -189,18 +251,50 @@ public class MainActivity extends AppCompatActivity {
                 ".guide-subtitle { font-size: 12px !important; top: 35px !important; } " +
                 "html, body { margin: 0 !important; padding: 0 !important; padding-bottom: 50px !important; width: 100% !important; height: 100vh !important; overflow-x: hidden !important; }";
 
-        webView.evaluateJavascript(
+        jsDispatcher.run(
                 "var style = document.createElement('style'); " +
                 "style.innerHTML = '" + css + "'; " +
-                "document.head.appendChild(style);", null);
+                "document.head.appendChild(style);");
     }
 
     private void injectUserData() {
         String userData = gameBridge.getUserDataJson();
-        webView.evaluateJavascript(
-            "if (window.gameUser) { window.gameUser = " + userData + "; } else { window.gameUser = " + userData + "; }",
-            null
-        );
+        jsDispatcher.run("window.gameUser = " + userData + ";");
+        // La próxima carga (p.ej. reload tras login) arranca ya con los datos actuales
+        injectUserDataAtDocumentStart();
+    }
+
+    /**
+     * Registra window.gameUser como script de inicio de documento, de modo que la página
+     * lo tiene antes del primer pintado (la foto de disco ya está en GameBridge).
+     */
+    private void injectUserDataAtDocumentStart() {
+        if (!WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)) {
+            return;
+        }
+        if (userDataScript != null) {
+            userDataScript.remove();
+            userDataScript = null;
+        }
+        if (gameBridge.isUserLoggedIn()) {
+            userDataScript = WebViewCompat.addDocumentStartJavaScript(webView,
+                "window.gameUser = " + gameBridge.getUserDataJson() + ";", Collections.singleton(WebAssets.ORIGIN));
+        }
+    }
+
+    public JsDispatcher getJsDispatcher() {
+        return jsDispatcher;
+    }
+
+    public StartupOrchestrator getStartup() {
+        return startup;
+    }
+
+    /**
+     * localStorage del antiguo origen file:// ya volcado: se importa en el nuevo origen.
+     */
+    public void onLegacyStorageExported(String json) {
+        runOnUiThread(() -> webAssets.importLegacyStorage(webView, json));
     }
 
     @Override
@@ -11,18 +11,15 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.WriteBatch;
 import java.util.HashMap;
 import java.util.Map;
 
 public class NickSetupActivity extends AppCompatActivity {
-    private static final String APP_ID = "aray"; // App ID para Aray
     
     private EditText nickInput;
     private Button saveButton;
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
+    private FirestoreAccess firestore;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,7 +27,7 @@ public class NickSetupActivity extends AppCompatActivity {
         setContentView(R.layout.activity_nick_setup);
 
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
+        firestore = FirestoreAccess.getInstance();
 
         nickInput = findViewById(R.id.nick_input);
         saveButton = findViewById(R.id.save_nick_btn);
@@ -61,8 +58,7 @@ public class NickSetupActivity extends AppCompatActivity {
         String uid = user.getUid();
 
         // Verificar si el nick ya existe
-        db.collection("apps").document(APP_ID).collection("nicks").document(lowerNick)
-                .get()
+        firestore.get("nick.check", firestore.nick(lowerNick))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         DocumentSnapshot nickDoc = task.getResult();
@@ -81,24 +77,29 @@ public class NickSetupActivity extends AppCompatActivity {
 
     private void createNick(String uid, String nick, String lowerNick) {
         try {
-            WriteBatch batch = db.batch();
+            FirestoreAccess.Batch batch = firestore.batch("nick.set");
 
             // Crear reserva de nick
             Map<String, Object> nickData = new HashMap<>();
             nickData.put("uid", uid);
             nickData.put("nick", nick);
             nickData.put("createdAt", System.currentTimeMillis());
-            batch.set(db.collection("apps").document(APP_ID).collection("nicks").document(lowerNick), nickData);
+            batch.set(firestore.nick(lowerNick), nickData);
 
             // Actualizar usuario - asegurar que candiesTotal sea número
             Map<String, Object> userUpdate = new HashMap<>();
             userUpdate.put("nick", nick);
             userUpdate.put("candiesTotal", 0L); // Asegurar que sea Long, no String
             userUpdate.put("lastSeen", System.currentTimeMillis());
-            batch.update(db.collection("apps").document(APP_ID).collection("users").document(uid), userUpdate);
+            batch.update(firestore.user(uid), userUpdate);
 
             batch.commit()
                     .addOnSuccessListener(aVoid -> {
+                        // Refrescar la copia del jugador en los documentos de progreso (rankings)
+                        FirebaseUser current = mAuth.getCurrentUser();
+                        String photoURL = current != null && current.getPhotoUrl() != null ? current.getPhotoUrl().toString() : null;
+                        new LeaderboardService(firestore).refreshPlayerCopy(uid,
+                                LeaderboardService.playerCopy(nick, photoURL, 0L));
                         Toast.makeText(this, "Nick guardado: " + nick, Toast.LENGTH_SHORT).show();
                         // Solo navegar a Ranking en onSuccess
                         Intent rankingIntent = new Intent(this, RankingActivity.class);
@@ -0,0 +1,372 @@
+package com.intocables.losmundosdearay;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Diario (write-ahead) de las mutaciones de progreso y caramelos que aún no ha confirmado
+ * Firestore, en files/progress_journal.bin. No depende del localStorage de la WebView ni
+ * de la caché de Firestore (que se borra al cerrar sesión).
+ *
+ * Cada mutación se añade al final del fichero con un número de secuencia. Cuando Firestore
+ * la confirma se añade un registro ACK con su secuencia. Al superar COMPACT_THRESHOLD
+ * registros el fichero se reescribe solo con lo pendiente, colapsado: nivel máximo por juego
+ * y último total de caramelos. Reaplicar una entrada es idempotente (el nivel solo sube, los
+ * caramelos son un valor absoluto).
+ *
+ * El estado en memoria se actualiza al momento; el disco lo escribe un único hilo, en orden:
+ * los añadidos van al final del fichero con fsync y la compactación escribe progress_journal.bin.new,
+ * lo sincroniza y lo renombra encima (rename atómico). Un .new que quede de un cierre a mitad
+ * se descarta al cargar: el fichero principal sigue entero. Nada de esto corre en el hilo
+ * que llama (a menudo el principal o el del puente JS).
+ *
+ * Registro: int longitud · payload · long CRC32 del payload.
+ * Payload (DataOutputStream): byte tipo · long seq · uid UTF · key UTF · long valor · long createdAt
+ * Un registro cortado o con CRC incorrecto (app matada a mitad) termina la lectura.
+ *
+ * El fichero se lee la primera vez que se usa (o en preload(), desde un hilo de fondo del
+ * arranque), nunca en el constructor.
+ */
+public class ProgressJournal {
+    private static final String TAG = "ProgressJournal";
+    private static final String FILE_NAME = "progress_journal.bin";
+    private static final int COMPACT_THRESHOLD = 64;
+    private static final int MAX_RECORD_BYTES = 4096;
+
+    public static final byte BEST_LEVEL = 1;
+    public static final byte CANDIES = 2;
+    private static final byte ACK = 3;
+
+    private final File file;
+    private final File compactFile;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    // Entradas pendientes en orden de secuencia
+    private final List<Entry> pending = new ArrayList<>();
+    private long nextSeq = 1L;
+    private int recordsOnDisk = 0;
+    private boolean loaded = false;
+
+    public ProgressJournal(Context context) {
+        File dir = context.getApplicationContext().getFilesDir();
+        this.file = new File(dir, FILE_NAME);
+        this.compactFile = new File(dir, FILE_NAME + ".new");
+    }
+
+    /**
+     * Lee el diario de disco si aún no se ha leído (para llamarlo fuera del hilo principal).
+     */
+    public synchronized void preload() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+    }
+
+    /**
+     * Apunta una mutación (a disco en el hilo del diario). Devuelve su número de secuencia.
+     */
+    public synchronized long append(String uid, byte type, String key, long value) {
+        preload();
+        Entry entry = new Entry(type, nextSeq++, uid, key != null ? key : "", value, System.currentTimeMillis());
+        pending.add(entry);
+        appendRecords(Collections.singletonList(entry));
+        return entry.seq;
+    }
+
+    /**
+     * Entradas pendientes de un usuario, en orden.
+     */
+    public synchronized List<Entry> pending(String uid) {
+        preload();
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : pending) {
+            if (entry.uid.equals(uid)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        preload();
+        return pending.size();
+    }
+
+    /**
+     * Marca entradas como aplicadas en Firestore.
+     */
+    public synchronized void acknowledge(Collection<Long> seqs) {
+        preload();
+        Set<Long> acked = new HashSet<>(seqs);
+        List<Entry> records = new ArrayList<>();
+        for (Iterator<Entry> it = pending.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (acked.contains(entry.seq)) {
+                it.remove();
+                records.add(new Entry(ACK, entry.seq, "", "", 0L, System.currentTimeMillis()));
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        appendRecords(records);
+        if (recordsOnDisk > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Confirma todas las entradas (uid, tipo, key) si la última tiene ese valor: lo que se
+     * escribió ya incluye todas las anteriores. Si hay una más nueva, siguen pendientes.
+     */
+    public synchronized void acknowledgeLatest(String uid, byte type, String key, long value) {
+        preload();
+        List<Long> seqs = new ArrayList<>();
+        Entry latest = null;
+        for (Entry entry : pending) {
+            if (entry.type == type && entry.uid.equals(uid) && entry.key.equals(key)) {
+                seqs.add(entry.seq);
+                latest = entry;
+            }
+        }
+        if (latest != null && latest.value == value) {
+            acknowledge(seqs);
+        }
+    }
+
+    /**
+     * Descarta las entradas (uid, tipo, key) sin aplicarlas (p. ej. al resetear un juego).
+     */
+    public synchronized void discard(String uid, byte type, String key) {
+        preload();
+        List<Long> seqs = new ArrayList<>();
+        for (Entry entry : pending) {
+            if (entry.type == type && entry.uid.equals(uid) && entry.key.equals(key)) {
+                seqs.add(entry.seq);
+            }
+        }
+        acknowledge(seqs);
+    }
+
+    private void load() {
+        if (compactFile.exists() && !compactFile.delete()) {
+            Log.w(TAG, "⚠️ No se pudo borrar una compactación a medias");
+        }
+        Map<Long, Entry> bySeq = new LinkedHashMap<>();
+        int records = 0;
+        long bytesRead = 0L;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                Entry entry = readRecord(in);
+                if (entry == null) {
+                    break;
+                }
+                records++;
+                bytesRead += entry.recordSize;
+                nextSeq = Math.max(nextSeq, entry.seq + 1);
+                if (entry.type == ACK) {
+                    bySeq.remove(entry.seq);
+                } else {
+                    bySeq.put(entry.seq, entry);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error leyendo el diario, se conserva lo leído", e);
+        }
+        pending.addAll(bySeq.values());
+        recordsOnDisk = records;
+        Log.d(TAG, "📒 Diario cargado: " + pending.size() + " pendientes de " + records + " registros");
+        // Solo se reescribe si hay una cola cortada (cierre a mitad de escritura) que descartar
+        // o demasiados registros; si no, el fichero se deja como está
+        boolean damagedTail = bytesRead < file.length();
+        if (damagedTail || records > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private static Entry readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_BYTES) {
+            Log.w(TAG, "⚠️ Registro con longitud inválida, fin del diario");
+            return null;
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+            long crc = in.readLong();
+            CRC32 check = new CRC32();
+            check.update(payload);
+            if (check.getValue() != crc) {
+                Log.w(TAG, "⚠️ Registro con CRC incorrecto, fin del diario");
+                return null;
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "⚠️ Último registro incompleto, se descarta");
+            return null;
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = data.readByte();
+        long seq = data.readLong();
+        String uid = data.readUTF();
+        String key = data.readUTF();
+        long value = data.readLong();
+        long createdAt = data.readLong();
+        Entry entry = new Entry(type, seq, uid, key, value, createdAt);
+        entry.recordSize = 4 + length + 8;
+        return entry;
+    }
+
+    private static void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeByte(entry.type);
+        data.writeLong(entry.seq);
+        data.writeUTF(entry.uid);
+        data.writeUTF(entry.key);
+        data.writeLong(entry.value);
+        data.writeLong(entry.createdAt);
+        byte[] payload = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(crc.getValue());
+    }
+
+    private void appendRecords(List<Entry> entries) {
+        recordsOnDisk += entries.size();
+        diskExecutor.execute(() -> {
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                DataOutputStream data = new DataOutputStream(out);
+                for (Entry entry : entries) {
+                    writeRecord(data, entry);
+                }
+                data.flush();
+                out.getFD().sync();
+            } catch (IOException e) {
+                // Puede haber quedado un registro a medias: se reescribe todo desde memoria
+                Log.e(TAG, "❌ Error escribiendo en el diario, compactando", e);
+                synchronized (this) {
+                    compact();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reescribe el fichero solo con lo pendiente, colapsado. Las entradas que colapsan
+     * (niveles menores, totales de caramelos antiguos) se dan por aplicadas.
+     */
+    private void compact() {
+        Map<String, Entry> kept = new HashMap<>();
+        for (Entry entry : pending) {
+            String id = entry.type + "|" + entry.uid + "|" + entry.key;
+            Entry current = kept.get(id);
+            boolean replace = current == null
+                || entry.type == CANDIES
+                || entry.value >= current.value;
+            if (replace) {
+                kept.put(id, entry);
+            }
+        }
+        List<Entry> compacted = new ArrayList<>();
+        for (Entry entry : pending) {
+            if (kept.get(entry.type + "|" + entry.uid + "|" + entry.key) == entry) {
+                compacted.add(entry);
+            }
+        }
+
+        Log.d(TAG, "🗜️ Diario compactado: " + recordsOnDisk + " → " + compacted.size() + " registros");
+        pending.clear();
+        pending.addAll(compacted);
+        recordsOnDisk = compacted.size();
+        // Los añadidos posteriores se encolan detrás y acaban al final del fichero nuevo
+        List<Entry> snapshot = new ArrayList<>(compacted);
+        diskExecutor.execute(() -> rewrite(snapshot));
+    }
+
+    private void rewrite(List<Entry> entries) {
+        try (FileOutputStream out = new FileOutputStream(compactFile)) {
+            DataOutputStream data = new DataOutputStream(out);
+            for (Entry entry : entries) {
+                writeRecord(data, entry);
+            }
+            data.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error compactando el diario", e);
+            compactFile.delete();
+            return;
+        }
+        if (!compactFile.renameTo(file)) {
+            Log.e(TAG, "❌ No se pudo sustituir el diario por el compactado");
+            compactFile.delete();
+        }
+    }
+
+    public static final class Entry {
+        final byte type;
+        final long seq;
+        final String uid;
+        final String key;
+        final long value;
+        final long createdAt;
+        // Bytes que ocupa en disco (solo al leerlo), para detectar una cola cortada
+        int recordSize;
+
+        Entry(byte type, long seq, String uid, String key, long value, long createdAt) {
+            this.type = type;
+            this.seq = seq;
+            this.uid = uid;
+            this.key = key;
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+}
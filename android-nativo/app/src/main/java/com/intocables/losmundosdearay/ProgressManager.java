@@ -4,17 +4,16 @@ import android.util.Log;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
 import java.util.HashMap;
 import java.util.Map;
 
 public class ProgressManager {
     private static final String TAG = "ProgressManager";
-    private FirebaseFirestore db;
+    private FirestoreAccess firestore;
     private FirebaseAuth mAuth;
 
     public ProgressManager() {
-        db = FirebaseFirestore.getInstance();
+        firestore = FirestoreAccess.getInstance();
         mAuth = FirebaseAuth.getInstance();
     }
 
@@ -32,8 +31,7 @@ public class ProgressManager {
         String docId = user.getUid() + "_" + gameId;
         
         // Primero obtener el nivel actual
-        db.collection("progress").document(docId)
-                .get()
+        firestore.get("progress.getBestLevel", firestore.progressDoc(docId))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         DocumentSnapshot document = task.getResult();
@@ -48,7 +46,7 @@ public class ProgressManager {
                             progressData.put("bestLevel", (long) newLevel);
                             progressData.put("updatedAt", System.currentTimeMillis());
 
-                            db.collection("progress").document(docId).set(progressData)
+                            firestore.set("progress.updateBestLevel", firestore.progressDoc(docId), progressData)
                                     .addOnSuccessListener(aVoid -> {
                                         Log.d(TAG, "Nivel máximo actualizado: " + gameId + " = " + newLevel);
                                     })
@@ -76,8 +74,7 @@ public class ProgressManager {
 
         String docId = user.getUid() + "_" + gameId;
         
-        db.collection("progress").document(docId)
-                .get()
+        firestore.get("progress.getBestLevel", firestore.progressDoc(docId))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful() && task.getResult().exists()) {
                         Long bestLevel = task.getResult().getLong("bestLevel");
@@ -98,9 +95,8 @@ public class ProgressManager {
             return;
         }
 
-        db.collection("progress")
-                .whereEqualTo("uid", user.getUid())
-                .get()
+        firestore.get("progress.getAll", FirestoreAccess.PROGRESS,
+                firestore.progress().whereEqualTo("uid", user.getUid()))
                 .addOnCompleteListener(task -> {
                     Map<String, Integer> levels = new HashMap<>();
                     if (task.isSuccessful()) {
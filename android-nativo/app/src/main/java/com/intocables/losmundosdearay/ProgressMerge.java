@@ -0,0 +1,156 @@
+package com.intocables.losmundosdearay;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Fusión sin conflictos del progreso entre dispositivos, sin transacciones ni lecturas
+ * previas a la escritura:
+ *
+ * - bestLevel es un registro máximo: se escribe a ciegas con set(merge) y las reglas de
+ *   Firestore rechazan cualquier valor menor que el guardado (PERMISSION_DENIED), así que
+ *   el documento solo sube. Un rechazo significa "ya hay un nivel igual o mayor". La única
+ *   bajada permitida es la de resetProgress, que pone resetAt = serverTimestamp() en la
+ *   misma escritura (las reglas exigen resetAt == request.time). Las entradas del diario no
+ *   llevan época de reset: si otro dispositivo tiene un nivel anterior al reset pendiente en
+ *   su diario, al reaplicarlo el nivel vuelve a subir (es un máximo legítimo para las reglas).
+ * - Los caramelos son un contador creciente por dispositivo (G-counter) en
+ *   users/{uid}.candiesByDevice.{deviceId}: cada dispositivo solo escribe su propia entrada
+ *   y el total es la suma. candiesTotal (el que ordena el ranking) se mantiene con
+ *   FieldValue.increment, que conmuta entre dispositivos, y se repara hacia arriba si
+ *   queda por debajo de la suma.
+ *
+ * Los caramelos anteriores a los contadores se conservan en la entrada "legacy".
+ *
+ * Las preferencias se abren en el primer uso (preload() en segundo plano al arrancar), no
+ * en el constructor, que se ejecuta en el hilo principal.
+ */
+public class ProgressMerge {
+    public static final String CANDIES_BY_DEVICE = "candiesByDevice";
+    public static final String LEGACY_DEVICE = "legacy";
+
+    private static final String PREFS = "progress_merge";
+    private static final String KEY_DEVICE_ID = "deviceId";
+    private static final String KEY_COUNTER_PREFIX = "candies_";
+    private static final String KEY_OPS_PREFIX = "ops_";
+    // Operaciones recientes recordadas por usuario para descartar reintentos
+    private static final int MAX_REMEMBERED_OPS = 200;
+
+    private final Context context;
+    private SharedPreferences prefs;
+    private String deviceId;
+
+    public ProgressMerge(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Lee las preferencias de disco (lo lanza StartupOrchestrator en segundo plano).
+     */
+    public void preload() {
+        getDeviceId();
+    }
+
+    private synchronized SharedPreferences prefs() {
+        if (prefs == null) {
+            prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        }
+        return prefs;
+    }
+
+    /**
+     * Id estable de esta instalación (clave de su contador de caramelos).
+     */
+    public synchronized String getDeviceId() {
+        if (deviceId == null) {
+            String id = prefs().getString(KEY_DEVICE_ID, null);
+            if (id == null) {
+                id = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+                prefs().edit().putString(KEY_DEVICE_ID, id).apply();
+            }
+            deviceId = id;
+        }
+        return deviceId;
+    }
+
+    /**
+     * Caramelos ganados en este dispositivo por el usuario.
+     */
+    public synchronized long getCounter(String uid) {
+        return prefs().getLong(KEY_COUNTER_PREFIX + uid, 0L);
+    }
+
+    /**
+     * Suma los caramelos de una operación identificada por opId, una sola vez: si ese opId ya
+     * se aplicó (reintento de JS) devuelve -1 y no suma nada. El contador y el opId se guardan
+     * en la misma edición de preferencias, así que no puede quedar uno sin el otro.
+     */
+    public synchronized long addOperation(String uid, String opId, long delta) {
+        List<String> ops = new ArrayList<>(Arrays.asList(prefs().getString(KEY_OPS_PREFIX + uid, "").split("\n")));
+        ops.remove("");
+        if (ops.contains(opId)) {
+            return -1L;
+        }
+        ops.add(opId);
+        while (ops.size() > MAX_REMEMBERED_OPS) {
+            ops.remove(0);
+        }
+        long counter = getCounter(uid) + Math.max(0L, delta);
+        prefs().edit()
+            .putLong(KEY_COUNTER_PREFIX + uid, counter)
+            .putString(KEY_OPS_PREFIX + uid, TextUtils.join("\n", ops))
+            .apply();
+        return counter;
+    }
+
+    /**
+     * Adopta el contador remoto de este dispositivo si es mayor (p. ej. tras borrar datos
+     * locales sin reinstalar).
+     */
+    public synchronized void observeCounter(String uid, long remote) {
+        if (remote > getCounter(uid)) {
+            prefs().edit().putLong(KEY_COUNTER_PREFIX + uid, remote).apply();
+        }
+    }
+
+    /**
+     * Contadores por dispositivo del documento de usuario (vacío si aún no tiene).
+     */
+    public static Map<String, Long> counters(DocumentSnapshot doc) {
+        Map<String, Long> counters = new HashMap<>();
+        Object raw = doc != null ? doc.get(CANDIES_BY_DEVICE) : null;
+        if (raw instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) raw).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    counters.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+        return counters;
+    }
+
+    public static long sum(Map<String, Long> counters) {
+        long total = 0L;
+        for (Long value : counters.values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * ¿Es un rechazo de las reglas? Para bestLevel significa que el remoto ya es igual o mayor.
+     */
+    public static boolean isRejectedWrite(Exception e) {
+        return e instanceof FirebaseFirestoreException
+            && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.PERMISSION_DENIED;
+    }
+}
@@ -0,0 +1,189 @@
+package com.intocables.losmundosdearay;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Almacén local de niveles máximos por (uid, gameId).
+ * Persistido en SQLite y cacheado en memoria para que las lecturas desde JS
+ * (GameBridge.getBestLevelSync) sean síncronas y no toquen disco.
+ * Las lecturas y escrituras a disco se hacen en un hilo en segundo plano: un usuario que
+ * aún no está en memoria empieza vacío y SQLite se mezcla después (max), nunca se lee de
+ * disco en el hilo que pregunta. La base de datos no se abre hasta la primera tarea de disco.
+ */
+public class ProgressStore extends SQLiteOpenHelper {
+    private static final String TAG = "ProgressStore";
+    private static final String DB_NAME = "progress_store.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE = "progress";
+
+    private final Map<String, Map<String, Integer>> levelsByUser = new ConcurrentHashMap<>();
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    public ProgressStore(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "uid TEXT NOT NULL, "
+                + "game_id TEXT NOT NULL, "
+                + "best_level INTEGER NOT NULL, "
+                + "updated_at INTEGER NOT NULL, "
+                + "PRIMARY KEY (uid, game_id))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Carga en memoria los niveles de un usuario en segundo plano (llamar al arrancar/loguear).
+     */
+    public void preload(String uid) {
+        if (uid != null) {
+            levelsFor(uid);
+        }
+    }
+
+    /**
+     * Siembra la memoria con niveles ya conocidos (foto de usuario del arranque) para que
+     * getBestLevel no espere a SQLite. El disco se mezcla después en segundo plano (max).
+     */
+    public void seed(String uid, Map<String, Integer> levels) {
+        if (uid == null || levels == null || levels.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> seeded = new ConcurrentHashMap<>(levels);
+        if (levelsByUser.putIfAbsent(uid, seeded) == null) {
+            mergeFromDisk(uid, seeded);
+        }
+    }
+
+    /**
+     * Nivel máximo conocido para un juego, o 0 si no hay dato.
+     */
+    public int getBestLevel(String uid, String gameId) {
+        if (uid == null || gameId == null) {
+            return 0;
+        }
+        Integer level = levelsFor(uid).get(gameId);
+        return level != null ? level : 0;
+    }
+
+    /**
+     * Copia de todos los niveles conocidos de un usuario.
+     */
+    public Map<String, Integer> getAllBestLevels(String uid) {
+        if (uid == null) {
+            return new HashMap<>();
+        }
+        return new HashMap<>(levelsFor(uid));
+    }
+
+    /**
+     * Registra un nivel; solo sube (max(actual, nuevo)). Devuelve true si cambió.
+     */
+    public boolean updateBestLevel(String uid, String gameId, int level) {
+        if (uid == null || gameId == null) {
+            return false;
+        }
+        Map<String, Integer> levels = levelsFor(uid);
+        synchronized (levels) {
+            Integer current = levels.get(gameId);
+            if (current != null && current >= level) {
+                return false;
+            }
+            levels.put(gameId, level);
+        }
+        persist(uid, gameId, level);
+        return true;
+    }
+
+    /**
+     * Fuerza un nivel aunque sea menor (solo para resetProgress).
+     */
+    public void setBestLevel(String uid, String gameId, int level) {
+        if (uid == null || gameId == null) {
+            return;
+        }
+        Map<String, Integer> levels = levelsFor(uid);
+        levels.put(gameId, level);
+        persist(uid, gameId, level);
+        // Si la mezcla con disco aún estaba en cola la habrá vuelto a subir: se reaplica
+        // detrás de ella en el mismo hilo
+        diskExecutor.execute(() -> levels.put(gameId, level));
+    }
+
+    private Map<String, Integer> levelsFor(String uid) {
+        Map<String, Integer> levels = levelsByUser.get(uid);
+        if (levels != null) {
+            return levels;
+        }
+        Map<String, Integer> created = new ConcurrentHashMap<>();
+        levels = levelsByUser.putIfAbsent(uid, created);
+        if (levels != null) {
+            return levels;
+        }
+        mergeFromDisk(uid, created);
+        return created;
+    }
+
+    /**
+     * Sube los niveles en memoria a los de SQLite (max), en el hilo de disco.
+     */
+    private void mergeFromDisk(String uid, Map<String, Integer> levels) {
+        diskExecutor.execute(() -> {
+            for (Map.Entry<String, Integer> entry : loadFromDisk(uid).entrySet()) {
+                synchronized (levels) {
+                    Integer current = levels.get(entry.getKey());
+                    if (current == null || current < entry.getValue()) {
+                        levels.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        });
+    }
+
+    private Map<String, Integer> loadFromDisk(String uid) {
+        Map<String, Integer> levels = new HashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{"game_id", "best_level"},
+                "uid = ?", new String[]{uid}, null, null, null)) {
+            while (cursor.moveToNext()) {
+                levels.put(cursor.getString(0), cursor.getInt(1));
+            }
+            Log.d(TAG, "📥 " + levels.size() + " niveles cargados de disco para " + uid);
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Error leyendo progreso local", e);
+        }
+        return levels;
+    }
+
+    private void persist(String uid, String gameId, int level) {
+        diskExecutor.execute(() -> {
+            try {
+                ContentValues values = new ContentValues();
+                values.put("uid", uid);
+                values.put("game_id", gameId);
+                values.put("best_level", level);
+                values.put("updated_at", System.currentTimeMillis());
+                getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            } catch (Exception e) {
+                Log.e(TAG, "❌ Error guardando progreso local (" + gameId + ")", e);
+            }
+        });
+    }
+}
@@ -2,69 +2,131 @@ package com.intocables.losmundosdearay;
 
 import android.os.Bundle;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.auth.FirebaseUser;
 import java.util.ArrayList;
 import java.util.List;
 
 public class RankingActivity extends AppCompatActivity {
-    private static final String APP_ID = "aray"; // App ID para Aray
+    private static final int PAGE_SIZE = LeaderboardService.DEFAULT_LIMIT;
+    // Filas que quedan por debajo de la última visible antes de pedir otra página
+    private static final int PREFETCH_ROWS = 5;
     
-    private ListView rankingList;
+    private RecyclerView rankingList;
+    private TextView myRankText;
     private Button closeButton;
-    private FirebaseFirestore db;
+    private FirestoreAccess firestore;
     private RankingAdapter adapter;
+    private LeaderboardService leaderboard;
+    private LeaderboardService.PageCursor nextCursor;
+    private boolean loading = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_ranking);
 
-        db = FirebaseFirestore.getInstance();
+        firestore = FirestoreAccess.getInstance();
+        leaderboard = new LeaderboardService(firestore);
 
         rankingList = findViewById(R.id.ranking_list);
+        myRankText = findViewById(R.id.my_rank_text);
         closeButton = findViewById(R.id.close_ranking_btn);
 
-        adapter = new RankingAdapter(this, new ArrayList<>());
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        adapter = new RankingAdapter();
+        rankingList.setLayoutManager(layoutManager);
+        rankingList.setHasFixedSize(true);
         rankingList.setAdapter(adapter);
+        rankingList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
 
         closeButton.setOnClickListener(v -> finish());
 
         loadRanking();
+        loadMyRank();
     }
 
-    private void loadRanking() {
-        Query query = db.collection("apps").document(APP_ID).collection("users")
-                .orderBy("candiesTotal", Query.Direction.DESCENDING)
-                .limit(20);
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        // Al volver a la pantalla se refresca lo ya cargado
+        loadRanking();
+        loadMyRank();
+    }
 
-        query.get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        List<RankingItem> items = new ArrayList<>();
-                        int position = 1;
+    /**
+     * Cabecera "Tu posición": el servicio lee el propio documento y cuenta cuántos tienen más caramelos.
+     */
+    private void loadMyRank() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        String uid = user.getUid();
 
-                        for (QueryDocumentSnapshot document : task.getResult()) {
-                            String nick = document.getString("nick");
-                            Long candiesTotal = document.getLong("candiesTotal");
-                            
-                            if (nick != null && candiesTotal != null) {
-                                items.add(new RankingItem(position++, nick, candiesTotal.intValue()));
-                            }
-                        }
+        leaderboard.myRank(uid, LeaderboardService.CANDIES, (rank, score) -> {
+            if (rank > 0) {
+                myRankText.setText(getString(R.string.my_rank, rank, score));
+                myRankText.setVisibility(android.view.View.VISIBLE);
+            }
+        });
+    }
 
-                        adapter.clear();
-                        adapter.addAll(items);
-                        adapter.notifyDataSetChanged();
-                    } else {
-                        Toast.makeText(this, "Error cargando ranking", Toast.LENGTH_SHORT).show();
-                    }
-                });
+    /**
+     * Primera página del ranking de caramelos (o recarga completa si ya había filas).
+     * Al refrescar se piden tantas filas como hay cargadas, de una vez, y AsyncListDiffer
+     * solo repinta las que han cambiado.
+     */
+    private void loadRanking() {
+        int count = Math.max(PAGE_SIZE, adapter.getItemCount());
+        loading = true;
+        leaderboard.candyPage(null, count, (page, next) -> {
+            loading = false;
+            if (page.isEmpty() && next == null && adapter.getItemCount() == 0) {
+                Toast.makeText(this, "Error cargando ranking", Toast.LENGTH_SHORT).show();
+            }
+            nextCursor = next;
+            adapter.submitList(withNick(page), null);
+        });
+    }
+
+    /**
+     * Scroll infinito: siguiente página a partir del último cursor.
+     */
+    private void loadNextPage() {
+        if (loading || nextCursor == null) {
+            return;
+        }
+        loading = true;
+        leaderboard.candyPage(nextCursor, PAGE_SIZE, (page, next) -> {
+            loading = false;
+            nextCursor = next;
+            List<RankingItem> items = new ArrayList<>(adapter.getCurrentList());
+            items.addAll(withNick(page));
+            adapter.submitList(items, null);
+        });
     }
-}
 
+    private static List<RankingItem> withNick(List<RankingItem> page) {
+        List<RankingItem> items = new ArrayList<>();
+        for (RankingItem item : page) {
+            if (item.getNick() != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+}
@@ -1,65 +1,104 @@
 package com.intocables.losmundosdearay;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
-import java.util.ArrayList;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+/**
+ * Adapter del ranking sobre RecyclerView.
+ * Las diferencias entre listas se calculan en segundo plano con AsyncListDiffer,
+ * así que al refrescar solo se vuelven a pintar las filas que han cambiado.
+ * Los ids estables salen del uid de cada jugador.
+ */
+public class RankingAdapter extends RecyclerView.Adapter<RankingAdapter.ViewHolder> {
+
+    private static final DiffUtil.ItemCallback<RankingItem> DIFF = new DiffUtil.ItemCallback<RankingItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull RankingItem oldItem, @NonNull RankingItem newItem) {
+            return oldItem.getUid() != null && oldItem.getUid().equals(newItem.getUid());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull RankingItem oldItem, @NonNull RankingItem newItem) {
+            return oldItem.getPosition() == newItem.getPosition()
+                    && oldItem.getCandiesTotal() == newItem.getCandiesTotal()
+                    && oldItem.getBestLevel() == newItem.getBestLevel()
+                    && equalsOrNull(oldItem.getNick(), newItem.getNick());
+        }
+    };
 
-public class RankingAdapter extends BaseAdapter {
-    private Context context;
-    private List<RankingItem> items;
+    private final AsyncListDiffer<RankingItem> differ = new AsyncListDiffer<>(this, DIFF);
+    // uid -> id estable (evita colisiones de hashCode)
+    private final Map<String, Long> stableIds = new HashMap<>();
 
-    public RankingAdapter(Context context, List<RankingItem> items) {
-        this.context = context;
-        this.items = items != null ? items : new ArrayList<>();
+    public RankingAdapter() {
+        setHasStableIds(true);
     }
 
-    @Override
-    public int getCount() {
-        return items.size();
+    /**
+     * Sustituye la lista; el diff se calcula fuera del hilo principal.
+     */
+    public void submitList(List<RankingItem> items, Runnable commitCallback) {
+        differ.submitList(items, commitCallback);
     }
 
-    @Override
-    public Object getItem(int position) {
-        return items.get(position);
+    public List<RankingItem> getCurrentList() {
+        return differ.getCurrentList();
     }
 
     @Override
-    public long getItemId(int position) {
-        return position;
+    public int getItemCount() {
+        return differ.getCurrentList().size();
     }
 
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        if (convertView == null) {
-            LayoutInflater inflater = LayoutInflater.from(context);
-            convertView = inflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+    public long getItemId(int position) {
+        String uid = differ.getCurrentList().get(position).getUid();
+        Long id = stableIds.get(uid);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(uid, id);
         }
-
-        RankingItem item = items.get(position);
-
-        TextView text1 = convertView.findViewById(android.R.id.text1);
-        TextView text2 = convertView.findViewById(android.R.id.text2);
-
-        text1.setText("#" + item.getPosition() + " " + item.getNick());
-        text2.setText("🍬 " + item.getCandiesTotal() + " caramelos");
-
-        return convertView;
+        return id;
     }
 
-    public void addAll(List<RankingItem> newItems) {
-        items.addAll(newItems);
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_ranking, parent, false);
+        return new ViewHolder(view);
     }
 
-    public void clear() {
-        items.clear();
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bind(differ.getCurrentList().get(position));
     }
-}
 
+    private static boolean equalsOrNull(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
 
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView title;
+        private final TextView subtitle;
 
+        ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            title = itemView.findViewById(R.id.ranking_title);
+            subtitle = itemView.findViewById(R.id.ranking_subtitle);
+        }
 
+        void bind(RankingItem item) {
+            title.setText(itemView.getContext().getString(R.string.ranking_row_title, item.getPosition(), item.getNick()));
+            subtitle.setText(itemView.getContext().getString(R.string.ranking_row_candies, item.getCandiesTotal()));
+        }
+    }
+}
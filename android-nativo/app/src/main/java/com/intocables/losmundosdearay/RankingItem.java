@@ -1,13 +1,26 @@
 package com.intocables.losmundosdearay;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 public class RankingItem {
     private int position;
+    private String uid;
     private String nick;
+    private String photoURL;
+    private long bestLevel;
     private int candiesTotal;
 
     public RankingItem(int position, String nick, int candiesTotal) {
+        this(position, null, nick, null, 0L, candiesTotal);
+    }
+
+    public RankingItem(int position, String uid, String nick, String photoURL, long bestLevel, int candiesTotal) {
         this.position = position;
+        this.uid = uid;
         this.nick = nick;
+        this.photoURL = photoURL;
+        this.bestLevel = bestLevel;
         this.candiesTotal = candiesTotal;
     }
 
@@ -15,15 +28,40 @@ public class RankingItem {
         return position;
     }
 
+    public String getUid() {
+        return uid;
+    }
+
     public String getNick() {
         return nick;
     }
 
+    public String getPhotoURL() {
+        return photoURL;
+    }
+
+    public long getBestLevel() {
+        return bestLevel;
+    }
+
     public int getCandiesTotal() {
         return candiesTotal;
     }
-}
 
+    /**
+     * Formato que esperan los rankings en JS (map.js).
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("position", position);
+        json.put("uid", uid);
+        json.put("nick", nick);
+        json.put("photoURL", photoURL);
+        json.put("bestLevel", bestLevel);
+        json.put("candiesTotal", candiesTotal);
+        return json;
+    }
+}
 
 
 
@@ -0,0 +1,223 @@
+package com.intocables.losmundosdearay;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versiones reducidas de las imágenes grandes (fondos y fichas de juegos) al tamaño real
+ * de la pantalla. Los fondos vienen a resolución completa y en un móvil de gama baja la
+ * WebView decodificaba y guardaba en memoria muchos más píxeles de los que pinta.
+ *
+ * Se generan la primera vez que se piden (en el hilo de red de la WebView) y se guardan en
+ * una caché de disco acotada (LRU por fecha de uso) con clave (asset, ancho, formato).
+ * Si algo falla se devuelve null y se sirve el original.
+ */
+public class ScaledImageCache {
+    private static final String TAG = "ScaledImageCache";
+    private static final String DIR_NAME = "scaled_images";
+    private static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final int WIDTH_STEP = 64;
+    private static final float LOW_RAM_SCALE = 0.75f;
+    private static final int QUALITY = 82;
+
+    // Fondos: cubren la pantalla (background-size: cover)
+    private static final String BACKGROUNDS = "img/fondos/";
+    // Fichas de juegos: como mucho el ancho de la pantalla (modal de edificio)
+    private static final String THUMBNAILS = "img/juegos/";
+
+    private final AssetManager assets;
+    private final File dir;
+    private final int screenWidth;
+    private final int screenHeight;
+    private final float scale;
+    private final Map<String, int[]> sourceSizes = new ConcurrentHashMap<>();
+    private long cacheBytes = -1L;
+
+    public ScaledImageCache(Context context) {
+        this.assets = context.getAssets();
+        this.dir = new File(context.getCacheDir(), DIR_NAME);
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        this.screenWidth = metrics.widthPixels;
+        this.screenHeight = metrics.heightPixels;
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        this.scale = am != null && am.isLowRamDevice() ? LOW_RAM_SCALE : 1f;
+    }
+
+    /**
+     * Fichero con la versión reducida de un asset (p. ej. "img/fondos/parque.webp"), o null
+     * si no se reduce (no es un fondo/ficha, ya es pequeña o hubo un error).
+     */
+    public File get(String assetPath) {
+        if (!isScalable(assetPath)) {
+            return null;
+        }
+        try {
+            int[] size = sourceSize(assetPath);
+            int width = targetWidth(assetPath, size[0], size[1]);
+            if (width >= size[0]) {
+                return null;
+            }
+            File file = new File(dir, cacheName(assetPath, width));
+            if (file.isFile()) {
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+            return create(assetPath, size, width, file);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "❌ No se pudo reducir " + assetPath, e);
+            return null;
+        }
+    }
+
+    public String mimeType() {
+        return "image/webp";
+    }
+
+    /**
+     * Vacía la caché (al actualizar la app, por si cambiaron los assets).
+     */
+    public synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheBytes = 0L;
+        sourceSizes.clear();
+    }
+
+    private boolean isScalable(String assetPath) {
+        if (assetPath == null) {
+            return false;
+        }
+        String lower = assetPath.toLowerCase();
+        boolean image = lower.endsWith(".webp") || lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        return image && (assetPath.startsWith(BACKGROUNDS) || assetPath.startsWith(THUMBNAILS));
+    }
+
+    private int[] sourceSize(String assetPath) throws IOException {
+        int[] size = sourceSizes.get(assetPath);
+        if (size != null) {
+            return size;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = assets.open(assetPath)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cabecera de imagen no válida");
+        }
+        size = new int[]{options.outWidth, options.outHeight};
+        sourceSizes.put(assetPath, size);
+        return size;
+    }
+
+    private int targetWidth(String assetPath, int width, int height) {
+        float needed;
+        if (assetPath.startsWith(BACKGROUNDS)) {
+            needed = width * Math.max(screenWidth / (float) width, screenHeight / (float) height);
+        } else {
+            needed = Math.min(width, screenWidth);
+        }
+        needed *= scale;
+        // Redondeo hacia arriba para no crear una variante por cada píxel de diferencia
+        return (int) Math.ceil(needed / WIDTH_STEP) * WIDTH_STEP;
+    }
+
+    private String cacheName(String assetPath, int width) {
+        String base = assetPath.substring(0, assetPath.lastIndexOf('.')).replaceAll("[^A-Za-z0-9]", "_");
+        return base + "_" + width + "w.webp";
+    }
+
+    private File create(String assetPath, int[] size, int width, File file) throws IOException {
+        int height = Math.max(1, Math.round(size[1] * (width / (float) size[0])));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (size[0] / (options.inSampleSize * 2) >= width) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded;
+        try (InputStream in = assets.open(assetPath)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("No se pudo decodificar");
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        // Se escribe en un temporal y se renombra: peticiones simultáneas no ven ficheros a medias
+        File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            scaled.compress(webpFormat(), QUALITY, out);
+        } finally {
+            scaled.recycle();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("No se pudo guardar " + file.getName());
+        }
+        Log.d(TAG, "🖼️ " + assetPath + ": " + size[0] + "px → " + width + "px (" + file.length() / 1024 + " KB)");
+        trim(file.length());
+        return file;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * Mantiene la caché por debajo de MAX_CACHE_BYTES borrando lo usado hace más tiempo.
+     */
+    private synchronized void trim(long added) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (cacheBytes < 0) {
+            cacheBytes = 0L;
+            for (File file : files) {
+                cacheBytes += file.length();
+            }
+        } else {
+            cacheBytes += added;
+        }
+        if (cacheBytes <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (cacheBytes <= MAX_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                cacheBytes -= length;
+            }
+        }
+    }
+}
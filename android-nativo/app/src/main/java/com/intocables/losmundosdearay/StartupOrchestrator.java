@@ -0,0 +1,201 @@
+package com.intocables.losmundosdearay;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Arranque en frío de MainActivity por fases.
+ * Los pasos independientes del hilo principal se lanzan en un pequeño pool en segundo plano,
+ * los que dependen del primer pintado de la WebView (SDK de anuncios, banner) se aplazan
+ * hasta que la WebView ha dibujado su primer frame, y cada fase queda registrada en una
+ * línea de tiempo (inicio/fin en ms desde onCreate, hilo) consultable desde JS.
+ */
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+    private static final int BACKGROUND_THREADS = 2;
+    private static final long FIRST_FRAME_TIMEOUT_MS = 3000;
+
+    private final long origin = SystemClock.elapsedRealtime();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Runnable> afterFirstFrame = new ArrayList<>();
+    private boolean firstFrameDrawn = false;
+
+    public StartupOrchestrator() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS,
+            5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "startup-" + threadCount.incrementAndGet());
+                return thread;
+            });
+        // Los hilos se liberan solos cuando el arranque termina
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ejecuta un paso ya, en el hilo actual, y lo registra.
+     */
+    public void run(String name, Runnable step) {
+        long start = now();
+        try {
+            step.run();
+        } finally {
+            record(name, start);
+        }
+    }
+
+    /**
+     * Lanza un paso en segundo plano. Los errores se registran pero no tumban el arranque.
+     */
+    public void inBackground(String name, Runnable step) {
+        executor.execute(() -> {
+            long start = now();
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "❌ Fase " + name + " falló", e);
+            } finally {
+                record(name, start);
+            }
+        });
+    }
+
+    /**
+     * Ejecuta un paso en el hilo principal cuando la WebView haya dibujado su primer frame.
+     */
+    public void afterFirstFrame(String name, Runnable step) {
+        deferUntilFirstFrame(() -> run(name, step));
+    }
+
+    /**
+     * Igual que afterFirstFrame, pero el paso se ejecuta en segundo plano.
+     */
+    public void inBackgroundAfterFirstFrame(String name, Runnable step) {
+        deferUntilFirstFrame(() -> inBackground(name, step));
+    }
+
+    private void deferUntilFirstFrame(Runnable action) {
+        synchronized (this) {
+            if (!firstFrameDrawn) {
+                afterFirstFrame.add(action);
+                return;
+            }
+        }
+        mainHandler.post(action);
+    }
+
+    /**
+     * Espera al primer pintado de la WebView (postVisualStateCallback). Si no llega en
+     * FIRST_FRAME_TIMEOUT_MS se liberan igualmente los pasos aplazados.
+     */
+    public void watchFirstFrame(WebView webView) {
+        webView.postVisualStateCallback(0, new WebView.VisualStateCallback() {
+            @Override
+            public void onComplete(long requestId) {
+                onFirstFrame("firstFrame");
+            }
+        });
+        mainHandler.postDelayed(() -> onFirstFrame("firstFrame.timeout"), FIRST_FRAME_TIMEOUT_MS);
+    }
+
+    private void onFirstFrame(String milestone) {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (firstFrameDrawn) {
+                return;
+            }
+            firstFrameDrawn = true;
+            pending = new ArrayList<>(afterFirstFrame);
+            afterFirstFrame.clear();
+        }
+        mark(milestone);
+        for (Runnable step : pending) {
+            mainHandler.post(step);
+        }
+    }
+
+    /**
+     * Registra un hito instantáneo (primer frame, página cargada...).
+     */
+    public void mark(String name) {
+        long at = now();
+        addPhase(new Phase(name, at, at, Thread.currentThread().getName()));
+    }
+
+    private void record(String name, long start) {
+        addPhase(new Phase(name, start, now(), Thread.currentThread().getName()));
+    }
+
+    private void addPhase(Phase phase) {
+        synchronized (phases) {
+            phases.add(phase);
+        }
+        Log.d(TAG, "⏱️ " + phase.name + ": " + phase.start + " → " + phase.end
+            + " ms (" + (phase.end - phase.start) + " ms, " + phase.thread + ")");
+    }
+
+    private long now() {
+        return SystemClock.elapsedRealtime() - origin;
+    }
+
+    /**
+     * Línea de tiempo: {processStartMs, phases: [{name, startMs, endMs, durationMs, thread}]}.
+     * processStartMs es negativo (ms del proceso antes de onCreate) y solo existe desde Android 7.
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                json.put("processStartMs", Process.getStartElapsedRealtime() - origin);
+            }
+            JSONArray list = new JSONArray();
+            synchronized (phases) {
+                for (Phase phase : phases) {
+                    JSONObject item = new JSONObject();
+                    item.put("name", phase.name);
+                    item.put("startMs", phase.start);
+                    item.put("endMs", phase.end);
+                    item.put("durationMs", phase.end - phase.start);
+                    item.put("thread", phase.thread);
+                    list.put(item);
+                }
+            }
+            json.put("phases", list);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creando JSON de arranque", e);
+        }
+        return json;
+    }
+
+    private static final class Phase {
+        final String name;
+        final long start;
+        final long end;
+        final String thread;
+
+        Phase(String name, long start, long end, String thread) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.intocables.losmundosdearay;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Última foto conocida del usuario en un fichero binario pequeño y versionado
+ * (files/user_snapshot.bin): nick, caramelos, preferencias de audio y niveles máximos.
+ * Se lee de forma síncrona al arrancar para que getUser() y el HUD tengan valores reales
+ * desde el primer frame, antes de que responda Firestore; el listener de usuario la
+ * corrige después si hace falta.
+ *
+ * Formato (DataOutputStream, big-endian):
+ * MAGIC int · VERSION int · savedAt long · uid UTF · hasNick boolean · [nick UTF] ·
+ * candiesTotal long · soundEnabled boolean · musicEnabled boolean ·
+ * nLevels int · nLevels × (gameId UTF · level int)
+ */
+public class UserSnapshotStore {
+    private static final String TAG = "UserSnapshotStore";
+    private static final String FILE_NAME = "user_snapshot.bin";
+    private static final int MAGIC = 0x41524159; // "ARAY"
+    private static final int VERSION = 1;
+
+    private final AtomicFile file;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    // Última foto pendiente de escribir: ráfagas de save() acaban en una sola escritura
+    private Snapshot pendingSave;
+
+    public UserSnapshotStore(Context context) {
+        this.file = new AtomicFile(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Lee la foto guardada (síncrono, pensado para el arranque). Devuelve null si no hay
+     * fichero, es de otra versión o está corrupto.
+     */
+    public Snapshot load() {
+        try (DataInputStream in = new DataInputStream(file.openRead())) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "⚠️ Foto de usuario con formato desconocido, se ignora");
+                return null;
+            }
+            long savedAt = in.readLong();
+            String uid = in.readUTF();
+            String nick = in.readBoolean() ? in.readUTF() : null;
+            long candiesTotal = in.readLong();
+            boolean soundEnabled = in.readBoolean();
+            boolean musicEnabled = in.readBoolean();
+            int count = in.readInt();
+            Map<String, Integer> levels = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                levels.put(in.readUTF(), in.readInt());
+            }
+            Log.d(TAG, "📥 Foto de usuario cargada (" + uid + ", " + candiesTotal + " caramelos, " + count + " niveles)");
+            return new Snapshot(new UserState(uid, nick, candiesTotal, soundEnabled, musicEnabled), levels, savedAt);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Foto de usuario corrupta, se ignora", e);
+            return null;
+        }
+    }
+
+    /**
+     * Guarda la foto en segundo plano. Si ya hay una escritura pendiente, solo se escribe la última.
+     */
+    public void save(UserState state, Map<String, Integer> levels) {
+        if (state == null || state.getUid() == null) {
+            return;
+        }
+        synchronized (this) {
+            boolean scheduled = pendingSave != null;
+            pendingSave = new Snapshot(state, new HashMap<>(levels), System.currentTimeMillis());
+            if (scheduled) {
+                return;
+            }
+        }
+        diskExecutor.execute(() -> {
+            Snapshot snapshot;
+            synchronized (this) {
+                snapshot = pendingSave;
+                pendingSave = null;
+            }
+            if (snapshot != null) {
+                write(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Borra la foto (al cerrar sesión).
+     */
+    public void clear() {
+        synchronized (this) {
+            pendingSave = null;
+        }
+        diskExecutor.execute(file::delete);
+    }
+
+    private void write(Snapshot snapshot) {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            UserState state = snapshot.state;
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(snapshot.savedAt);
+            data.writeUTF(state.getUid());
+            data.writeBoolean(state.getNick() != null);
+            if (state.getNick() != null) {
+                data.writeUTF(state.getNick());
+            }
+            data.writeLong(state.getCandiesTotal());
+            data.writeBoolean(state.isSoundEnabled());
+            data.writeBoolean(state.isMusicEnabled());
+            data.writeInt(snapshot.levels.size());
+            for (Map.Entry<String, Integer> entry : snapshot.levels.entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeInt(entry.getValue());
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error guardando foto de usuario", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    public static final class Snapshot {
+        final UserState state;
+        final Map<String, Integer> levels;
+        final long savedAt;
+
+        Snapshot(UserState state, Map<String, Integer> levels, long savedAt) {
+            this.state = state;
+            this.levels = levels;
+            this.savedAt = savedAt;
+        }
+
+        public UserState getState() {
+            return state;
+        }
+
+        public Map<String, Integer> getLevels() {
+            return levels;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.intocables.losmundosdearay;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+/**
+ * Foto inmutable de apps/aray/users/{uid} tal y como la ve el cliente.
+ * GameBridge guarda una sola referencia volatile y la sustituye entera en cada cambio,
+ * así que getUser() y compañía leen siempre un estado coherente sin bloquear.
+ */
+public final class UserState {
+    public static final UserState EMPTY = new UserState(null, null, 0L, false, false);
+
+    private final String uid;
+    private final String nick;
+    private final long candiesTotal;
+    private final boolean soundEnabled;
+    private final boolean musicEnabled;
+
+    public UserState(String uid, String nick, long candiesTotal, boolean soundEnabled, boolean musicEnabled) {
+        this.uid = uid;
+        this.nick = nick;
+        this.candiesTotal = candiesTotal;
+        this.soundEnabled = soundEnabled;
+        this.musicEnabled = musicEnabled;
+    }
+
+    /**
+     * Estado a partir del documento de usuario. El audio ausente cuenta como activado.
+     */
+    public static UserState fromSnapshot(String uid, DocumentSnapshot doc) {
+        if (doc == null || !doc.exists()) {
+            return new UserState(uid, null, 0L, false, false);
+        }
+        Long candies = doc.getLong("candiesTotal");
+        Boolean sound = doc.getBoolean("soundEnabled");
+        Boolean music = doc.getBoolean("musicEnabled");
+        return new UserState(
+            uid,
+            doc.getString("nick"),
+            candies != null ? candies : 0L,
+            sound == null || sound,
+            music == null || music
+        );
+    }
+
+    public UserState withCandies(long candiesTotal) {
+        return new UserState(uid, nick, candiesTotal, soundEnabled, musicEnabled);
+    }
+
+    public UserState withNick(String nick) {
+        return new UserState(uid, nick, candiesTotal, soundEnabled, musicEnabled);
+    }
+
+    public UserState withAudio(boolean soundEnabled, boolean musicEnabled) {
+        return new UserState(uid, nick, candiesTotal, soundEnabled, musicEnabled);
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getNick() {
+        return nick;
+    }
+
+    public long getCandiesTotal() {
+        return candiesTotal;
+    }
+
+    public boolean isSoundEnabled() {
+        return soundEnabled;
+    }
+
+    public boolean isMusicEnabled() {
+        return musicEnabled;
+    }
+}
@@ -0,0 +1,233 @@
+package com.intocables.losmundosdearay;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import androidx.webkit.WebViewAssetLoader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sirve los assets del juego desde https://appassets.androidplatform.net/assets/ con
+ * WebViewAssetLoader en lugar de file://. Con un origen https Chromium aplica caché HTTP
+ * y caché de código V8 a los scripts, así que las páginas de los juegos no vuelven a
+ * compilar map.js, ui.js, storage.js... en cada navegación.
+ *
+ * Cabeceras: HTML con no-cache (se revalida siempre); JS, CSS e imágenes con caché de un año.
+ * Como los assets solo cambian al actualizar la app, la caché de la WebView se vacía
+ * una vez cuando cambia la fecha de instalación del APK.
+ *
+ * Los fondos y las fichas de juegos se sirven reducidos al tamaño de la pantalla
+ * (ScaledImageCache) en lugar de a resolución completa.
+ *
+ * En release los módulos JS van empaquetados (bundleMergedWebAssets en app/build.gradle) y
+ * js/bundle-manifest.json dice qué ficheros carga cada página: al servir su HTML se añaden
+ * <link rel="modulepreload"> para pedirlos todos a la vez en lugar de en cascada.
+ *
+ * También migra el localStorage del antiguo origen file:// al nuevo origen (una sola vez).
+ */
+public class WebAssets {
+    private static final String TAG = "WebAssets";
+    public static final String ORIGIN = "https://" + WebViewAssetLoader.DEFAULT_DOMAIN;
+    public static final String BASE_URL = ORIGIN + "/assets/";
+    public static final String INDEX_URL = BASE_URL + "index.html";
+
+    private static final String PREFS = "web_assets";
+    private static final String KEY_CACHE_VERSION = "cacheVersion";
+    private static final String KEY_STORAGE_MIGRATED = "fileStorageMigrated";
+    private static final String LEGACY_BASE_URL = "file:///android_asset/";
+    private static final String STATIC_CACHE = "public, max-age=31536000, immutable";
+    private static final String HTML_CACHE = "no-cache";
+
+    private static final String ASSETS_PATH = "/assets/";
+    private static final String BUNDLE_MANIFEST = "js/bundle-manifest.json";
+
+    private final WebViewAssetLoader loader;
+    private final ScaledImageCache scaledImages;
+    private final AssetManager assets;
+    // página → etiquetas modulepreload (vacío sin bundle, p. ej. en debug)
+    private volatile Map<String, String> preloadTags;
+    private final SharedPreferences prefs;
+    private final long installVersion;
+
+    public WebAssets(Context context) {
+        this.loader = new WebViewAssetLoader.Builder()
+            .addPathHandler(ASSETS_PATH, new WebViewAssetLoader.AssetsPathHandler(context))
+            .build();
+        this.scaledImages = new ScaledImageCache(context);
+        this.assets = context.getAssets();
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long version = 0L;
+        try {
+            version = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "No se pudo leer la versión instalada", e);
+        }
+        this.installVersion = version;
+    }
+
+    /**
+     * Respuesta para una petición de la WebView, o null si no es un asset nuestro.
+     */
+    public WebResourceResponse intercept(Uri url) {
+        WebResourceResponse scaled = interceptScaledImage(url);
+        if (scaled != null) {
+            return scaled;
+        }
+        WebResourceResponse response = loader.shouldInterceptRequest(url);
+        if (response == null) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (response.getResponseHeaders() != null) {
+            headers.putAll(response.getResponseHeaders());
+        }
+        String path = url.getPath();
+        boolean html = path != null && path.endsWith(".html");
+        headers.put("Cache-Control", html ? HTML_CACHE : STATIC_CACHE);
+        response.setResponseHeaders(headers);
+        if (html) {
+            addModulePreloads(response, path.substring(path.lastIndexOf('/') + 1));
+        }
+        return response;
+    }
+
+    private void addModulePreloads(WebResourceResponse response, String page) {
+        String tags = preloadTagsByPage().get(page);
+        if (tags == null || response.getData() == null) {
+            return;
+        }
+        try (InputStream in = response.getData()) {
+            String html = readUtf8(in);
+            int head = html.indexOf("</head>");
+            html = head >= 0 ? html.substring(0, head) + tags + html.substring(head) : tags + html;
+            response.setData(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error añadiendo modulepreload a " + page, e);
+        }
+    }
+
+    private Map<String, String> preloadTagsByPage() {
+        Map<String, String> tags = preloadTags;
+        if (tags != null) {
+            return tags;
+        }
+        tags = new HashMap<>();
+        try (InputStream in = assets.open(BUNDLE_MANIFEST)) {
+            JSONObject pages = new JSONObject(readUtf8(in)).getJSONObject("pages");
+            JSONArray names = pages.names();
+            for (int i = 0; names != null && i < names.length(); i++) {
+                String page = names.getString(i);
+                JSONArray files = pages.getJSONObject(page).getJSONArray("preload");
+                StringBuilder links = new StringBuilder();
+                for (int j = 0; j < files.length(); j++) {
+                    links.append("<link rel=\"modulepreload\" href=\"").append(files.getString(j)).append("\">");
+                }
+                tags.put(page, links.toString());
+            }
+            Log.d(TAG, "📦 Manifiesto de bundle: " + tags.size() + " páginas");
+        } catch (FileNotFoundException e) {
+            // Sin bundle (debug): los módulos se cargan sueltos
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "❌ Manifiesto de bundle no válido", e);
+        }
+        preloadTags = tags;
+        return tags;
+    }
+
+    /**
+     * Versión reducida de un fondo o ficha de juego, o null para servir el original.
+     */
+    private WebResourceResponse interceptScaledImage(Uri url) {
+        String path = url.getPath();
+        if (!"https".equals(url.getScheme()) || !WebViewAssetLoader.DEFAULT_DOMAIN.equals(url.getHost())
+                || path == null || !path.startsWith(ASSETS_PATH)) {
+            return null;
+        }
+        File file = scaledImages.get(path.substring(ASSETS_PATH.length()));
+        if (file == null) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", STATIC_CACHE);
+        try {
+            return new WebResourceResponse(scaledImages.mimeType(), null, 200, "OK", headers, new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            // Borrado por el recorte de la caché entre get() y aquí: se sirve el original
+            return null;
+        }
+    }
+
+    private static String readUtf8(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    /**
+     * Vacía la caché HTTP/de código si el APK ha cambiado desde la última vez.
+     */
+    public void clearCacheIfUpdated(WebView webView) {
+        if (prefs.getLong(KEY_CACHE_VERSION, -1L) != installVersion) {
+            Log.d(TAG, "🧹 App actualizada: limpiando caché de la WebView");
+            webView.clearCache(true);
+            scaledImages.clear();
+            prefs.edit().putLong(KEY_CACHE_VERSION, installVersion).apply();
+        }
+    }
+
+    public boolean isStorageMigrated() {
+        return prefs.getBoolean(KEY_STORAGE_MIGRATED, false);
+    }
+
+    /**
+     * Paso 1 de la migración: una página en blanco con origen file:// vuelca su
+     * localStorage a GameBridge.exportLegacyStorage (no hace falta acceso a ficheros).
+     */
+    public void exportLegacyStorage(WebView webView) {
+        String html = "<script>"
+            + "var data = {};"
+            + "try { for (var i = 0; i < localStorage.length; i++) {"
+            + " var k = localStorage.key(i); data[k] = localStorage.getItem(k); } } catch (e) {}"
+            + "GameBridge.exportLegacyStorage(JSON.stringify(data));"
+            + "</script>";
+        webView.loadDataWithBaseURL(LEGACY_BASE_URL, html, "text/html", "utf-8", null);
+    }
+
+    /**
+     * Paso 2: con origen https escribe en localStorage las claves volcadas que aún no
+     * existan y continúa a index.html.
+     */
+    public void importLegacyStorage(WebView webView, String json) {
+        String data = JSONObject.quote(json != null ? json : "{}").replace("</", "<\\/");
+        String html = "<script>"
+            + "try { var data = JSON.parse(" + data + ");"
+            + " for (var k in data) { if (localStorage.getItem(k) === null) localStorage.setItem(k, data[k]); } }"
+            + " catch (e) { console.error(e); }"
+            + "location.replace('index.html');"
+            + "</script>";
+        prefs.edit().putBoolean(KEY_STORAGE_MIGRATED, true).apply();
+        webView.loadDataWithBaseURL(BASE_URL, html, "text/html", "utf-8", null);
+        Log.d(TAG, "📦 localStorage migrado de file:// a " + ORIGIN);
+    }
+}
@@ -0,0 +1,278 @@
+package com.intocables.losmundosdearay;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffer write-behind para escrituras frecuentes en Firestore (caramelos, preferencias de audio).
+ * Guarda el último valor por documento y campo (last-write-wins) y lo vuelca con un
+ * único set(..., merge) por documento cada cierto intervalo o al llamar a flush().
+ * Los incrementos (increment()) se acumulan y salen como un solo FieldValue.increment.
+ *
+ * Si Firestore rechaza un volcado (reglas, argumentos inválidos...) se descarta: repetirlo
+ * daría el mismo error. Los fallos transitorios se reintentan con espera exponencial.
+ */
+public class WriteBehindBuffer {
+    private static final String TAG = "WriteBehindBuffer";
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 5000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, DocumentReference> refs = new HashMap<>();
+    private final Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+    private final Runnable flushRunnable = this::flush;
+    private long flushIntervalMs;
+    private boolean flushScheduled = false;
+    private FlushCallback flushCallback;
+    // Fallos transitorios seguidos (espera exponencial hasta el siguiente volcado)
+    private int consecutiveFailures = 0;
+    // Cambia con clear(): los fallos de volcados anteriores ya no se reencolan
+    private int generation = 0;
+
+    public WriteBehindBuffer() {
+        this(DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    public WriteBehindBuffer(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * Encola un valor para un campo. Si ya había uno pendiente, se sustituye.
+     */
+    public synchronized void put(DocumentReference ref, String field, Object value) {
+        String path = ref.getPath();
+        refs.put(path, ref);
+        Map<String, Object> fields = pending.get(path);
+        if (fields == null) {
+            fields = new LinkedHashMap<>();
+            pending.put(path, fields);
+        }
+        fields.put(field, value);
+        scheduleFlush();
+    }
+
+    /**
+     * Acumula un incremento para un campo numérico. Si el pendiente es un valor absoluto,
+     * se le suma directamente.
+     */
+    public synchronized void increment(DocumentReference ref, String field, long delta) {
+        String path = ref.getPath();
+        refs.put(path, ref);
+        Map<String, Object> fields = pending.get(path);
+        if (fields == null) {
+            fields = new LinkedHashMap<>();
+            pending.put(path, fields);
+        }
+        fields.put(field, add(fields.get(field), delta));
+        scheduleFlush();
+    }
+
+    private static Object add(Object current, long delta) {
+        if (current instanceof Increment) {
+            return new Increment(((Increment) current).delta + delta);
+        }
+        if (current instanceof Long) {
+            return (Long) current + delta;
+        }
+        return new Increment(delta);
+    }
+
+    /**
+     * Incremento pendiente de un campo (0 si no hay).
+     */
+    public synchronized long getPendingIncrement(DocumentReference ref, String field) {
+        Object value = getPending(ref, field);
+        return value instanceof Increment ? ((Increment) value).delta : 0L;
+    }
+
+    /**
+     * Devuelve el valor pendiente de un campo, o null si no hay ninguno.
+     */
+    public synchronized Object getPending(DocumentReference ref, String field) {
+        Map<String, Object> fields = pending.get(ref.getPath());
+        return fields != null ? fields.get(field) : null;
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    public synchronized void setFlushInterval(long flushIntervalMs) {
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            handler.postDelayed(flushRunnable, this.flushIntervalMs);
+        }
+    }
+
+    public synchronized long getFlushInterval() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * Aviso cuando Firestore confirma el volcado de un documento (p. ej. para el diario).
+     */
+    public synchronized void setFlushCallback(FlushCallback callback) {
+        this.flushCallback = callback;
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, nextDelay());
+        }
+    }
+
+    private long nextDelay() {
+        if (consecutiveFailures == 0) {
+            return flushIntervalMs;
+        }
+        long base = Math.max(flushIntervalMs, 1000L);
+        return Math.min(MAX_RETRY_DELAY_MS, base << Math.min(consecutiveFailures, 16));
+    }
+
+    /**
+     * Vuelca todo lo pendiente: un set(..., merge) por documento.
+     * Si una escritura falla, sus campos se vuelven a encolar salvo que ya haya un valor más nuevo.
+     */
+    public void flush() {
+        List<DocumentReference> flushRefs = new ArrayList<>();
+        List<Map<String, Object>> flushFields = new ArrayList<>();
+        int flushGeneration;
+
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            for (Map.Entry<String, Map<String, Object>> entry : pending.entrySet()) {
+                flushRefs.add(refs.get(entry.getKey()));
+                flushFields.add(entry.getValue());
+            }
+            pending.clear();
+            refs.clear();
+            flushGeneration = generation;
+        }
+
+        for (int i = 0; i < flushRefs.size(); i++) {
+            DocumentReference ref = flushRefs.get(i);
+            Map<String, Object> fields = flushFields.get(i);
+
+            Map<String, Object> data = new HashMap<>();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                Object value = field.getValue();
+                data.put(field.getKey(), value instanceof Increment
+                    ? FieldValue.increment(((Increment) value).delta) : value);
+            }
+            data.put("lastSeen", FieldValue.serverTimestamp());
+
+            Log.d(TAG, "💾 Volcando " + fields.keySet() + " en " + ref.getPath());
+            FirestoreAccess.getInstance().set("user.writeBehind", ref, data, SetOptions.merge())
+                .addOnSuccessListener(v -> {
+                    FlushCallback callback;
+                    synchronized (this) {
+                        consecutiveFailures = 0;
+                        callback = flushCallback;
+                    }
+                    if (callback != null) {
+                        callback.onResult(ref.getPath(), fields);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    if (!isRetryable(e)) {
+                        Log.e(TAG, "❌ Volcado rechazado en " + ref.getPath() + ", se descarta " + fields.keySet(), e);
+                        return;
+                    }
+                    Log.e(TAG, "❌ Error volcando " + ref.getPath() + ", reencolando", e);
+                    requeue(flushGeneration, ref, fields);
+                });
+        }
+    }
+
+    /**
+     * ¿Tiene sentido repetir la escritura? Los rechazos de las reglas y los errores del propio
+     * dato se repetirían igual.
+     */
+    private static boolean isRetryable(Exception e) {
+        if (ProgressMerge.isRejectedWrite(e)) {
+            return false;
+        }
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return true;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case INVALID_ARGUMENT:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+            case UNAUTHENTICATED:
+            case NOT_FOUND:
+            case ALREADY_EXISTS:
+            case UNIMPLEMENTED:
+            case DATA_LOSS:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private synchronized void requeue(int flushGeneration, DocumentReference ref, Map<String, Object> fields) {
+        if (flushGeneration != generation) {
+            // Sesión cerrada desde entonces (clear): no se reintenta
+            return;
+        }
+        consecutiveFailures++;
+        String path = ref.getPath();
+        refs.put(path, ref);
+        Map<String, Object> current = pending.get(path);
+        if (current == null) {
+            current = new LinkedHashMap<>();
+            pending.put(path, current);
+        }
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            if (entry.getValue() instanceof Increment) {
+                // Un incremento no aplicado se suma a lo que haya llegado después
+                current.put(entry.getKey(), add(current.get(entry.getKey()), ((Increment) entry.getValue()).delta));
+            } else if (!current.containsKey(entry.getKey())) {
+                current.put(entry.getKey(), entry.getValue());
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Descarta lo pendiente sin escribirlo y olvida los reintentos de volcados ya lanzados
+     * (al cerrar sesión, después del último flush).
+     */
+    public synchronized void clear() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        pending.clear();
+        refs.clear();
+        consecutiveFailures = 0;
+        generation++;
+    }
+
+    private static final class Increment {
+        final long delta;
+
+        Increment(long delta) {
+            this.delta = delta;
+        }
+    }
+
+    public interface FlushCallback {
+        void onResult(String path, Map<String, Object> fields);
+    }
+}